@@ -1,60 +1,178 @@
 package com.hmdp.config;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.Shop;
-import com.hmdp.mapper.ShopMapper;
+import com.hmdp.entity.User;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IUserService;
+import com.hmdp.service.IVoucherService;
 import com.hmdp.utils.BloomFilterUtil;
+import com.hmdp.utils.SimpleRedisLock;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_SHOP_KEY;
-
 /**
  * 布隆过滤器初始化
- * 应用启动时自动执行，将所有店铺ID加载到布隆过滤器中
+ * 应用启动后在后台线程中执行，将每个受保护实体的所有ID加载到对应的布隆过滤器（bloom:实体名）中，
+ * 启动耗时与数据量无关；初始化完成前布隆过滤器未就绪，查询一律放行。
+ * 之后按cron定期重建，清除已删除的数据，并按当前数据量重新计算位数组大小
  */
 @Slf4j
 @Component
 public class BloomFilterInit implements CommandLineRunner {
 
+    /**
+     * 受布隆过滤器保护的实体，新增时由 BloomFilterInsertInterceptor 写入id
+     */
+    public static final List<Class<?>> GUARDED_ENTITIES =
+            Arrays.asList(Shop.class, User.class, Voucher.class, Blog.class);
+
+    // 每批读取的数据量
+    private static final int BATCH_SIZE = 1000;
+
+    // 重建锁的超时时间，足够完成一次重建
+    private static final long REBUILD_LOCK_TIMEOUT_SEC = 600;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private IVoucherService voucherService;
+
     @Resource
-    private ShopMapper shopMapper;
+    private IBlogService blogService;
 
     @Resource
     private BloomFilterUtil bloomFilterUtil;
 
-    @Override
-    public void run(String... args) throws Exception {
-        log.info("开始初始化布隆过滤器...");
-        
-        // 查询所有店铺ID
-        QueryWrapper<Shop> queryWrapper = new QueryWrapper<>();
-        queryWrapper.select("id");
-        List<Shop> shopList = shopMapper.selectList(queryWrapper);
-        
-        if (shopList == null || shopList.isEmpty()) {
-            log.warn("没有找到店铺数据，跳过布隆过滤器初始化");
-            return;
-        }
-        
-        // 将店铺ID转换为字符串列表
-        List<String> shopIds = shopList.stream()
-                .map(shop -> String.valueOf(shop.getId()))
-                .collect(Collectors.toList());
-        
-        // 批量添加到布隆过滤器
-        bloomFilterUtil.addBatch(BLOOM_FILTER_SHOP_KEY, shopIds);
-        
-        log.info("布隆过滤器初始化完成，共加载 {} 个店铺ID", shopIds.size());
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    // 实体 -> 读取id用的service
+    private final Map<Class<?>, IService<?>> services = new LinkedHashMap<>();
+
+    // 后台初始化线程
+    private final ExecutorService bootstrap = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "bloom-bootstrap");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    public void init() {
+        services.put(Shop.class, shopService);
+        services.put(User.class, userService);
+        services.put(Voucher.class, voucherService);
+        services.put(Blog.class, blogService);
     }
-}
 
+    @Override
+    public void run(String... args) {
+        bootstrap.execute(() -> {
+            log.info("开始初始化布隆过滤器...");
+            long begin = System.currentTimeMillis();
+            for (Class<?> entity : GUARDED_ENTITIES) {
+                try {
+                    if (!rebuild(entity)) {
+                        // 其他节点正在重建，完成后会通知本节点重新加载
+                        bloomFilterUtil.loadReplica(BloomFilterUtil.keyOf(entity));
+                    }
+                } catch (Exception e) {
+                    // 初始化失败时保持未就绪（放行），等待定期重建
+                    log.error("布隆过滤器初始化失败：{}", BloomFilterUtil.keyOf(entity), e);
+                }
+            }
+            log.info("布隆过滤器初始化完成，耗时 {} ms", System.currentTimeMillis() - begin);
+        });
+    }
 
+    @PreDestroy
+    public void shutdown() {
+        bootstrap.shutdownNow();
+    }
 
+    /**
+     * 定期重建，每个实体单独处理，一个失败不影响其他实体
+     */
+    @Scheduled(cron = "${hmdp.bloom.rebuild-cron:0 0 4 * * ?}")
+    public void scheduledRebuild() {
+        for (Class<?> entity : GUARDED_ENTITIES) {
+            try {
+                rebuild(entity);
+            } catch (Exception e) {
+                // 重建失败时继续使用旧一代，等待下次重建
+                log.error("布隆过滤器定期重建失败：{}", BloomFilterUtil.keyOf(entity), e);
+            }
+        }
+    }
 
+    /**
+     * 重建实体的布隆过滤器，同一时刻只有一个节点执行
+     * @return 是否由本节点完成了重建
+     */
+    private boolean rebuild(Class<?> entity) {
+        String key = BloomFilterUtil.keyOf(entity);
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, key);
+        if (!lock.tryLock(REBUILD_LOCK_TIMEOUT_SEC)) {
+            log.info("其他节点正在重建布隆过滤器，跳过：{}", key);
+            return false;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            IService<?> service = services.get(entity);
+            long count = service.count();
+            bloomFilterUtil.rebuild(key, count, consumer -> scanIds(service, entity, consumer));
+            log.info("布隆过滤器重建完成：{}，共 {} 个ID，耗时 {} ms", key, count, System.currentTimeMillis() - begin);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    /**
+     * 按主键分页流式读取所有id，不把所有id同时加载到内存
+     */
+    private <T> void scanIds(IService<T> service, Class<?> entity,
+                             Consumer<List<String>> consumer) {
+        String keyColumn = TableInfoHelper.getTableInfo(entity).getKeyColumn();
+        Object lastId = 0L;
+        while (true) {
+            List<Object> ids = service.listObjs(new QueryWrapper<T>()
+                    .select(keyColumn)
+                    .gt(keyColumn, lastId)
+                    .orderByAsc(keyColumn)
+                    .last("limit " + BATCH_SIZE));
+            if (ids.isEmpty()) {
+                break;
+            }
+            consumer.accept(ids.stream().map(String::valueOf).collect(Collectors.toList()));
+            lastId = ids.get(ids.size() - 1);
+            if (ids.size() < BATCH_SIZE) {
+                break;
+            }
+        }
+    }
+}
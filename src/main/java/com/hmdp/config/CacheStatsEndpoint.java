@@ -0,0 +1,73 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.ExpiryPolicy;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.PenetrationGuardAspect;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 缓存统计端点：/actuator/cache-stats
+ * 汇总各级缓存命中率、按key前缀的指标、当前热点key、重建队列状态、布隆过滤器按实体的拦截次数、店铺缓存预热进度，
+ * 以及未来每分钟计划过期的key数量（验证过期时间是否被抖动打散）
+ */
+@Component
+@Endpoint(id = "cachestats")
+public class CacheStatsEndpoint {
+
+    // 过期分布每个时间段的秒数
+    private static final int EXPIRY_BUCKET_SECONDS = 60;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private PenetrationGuardAspect penetrationGuardAspect;
+
+    @Resource
+    private ShopCacheWarmUp shopCacheWarmUp;
+
+    @Resource
+    private ExpiryPolicy expiryPolicy;
+
+    @ReadOperation
+    public Map<String, Object> cacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("tiers", cacheClient.getTierStats());
+        stats.put("prefixes", cacheMetrics.snapshot());
+        stats.put("hotKeys", hotKeyDetector.getTopK());
+        Map<String, Object> rebuild = new LinkedHashMap<>();
+        rebuild.put("queueDepth", cacheRebuildExecutor.getQueueDepth());
+        rebuild.put("inFlight", cacheRebuildExecutor.getInFlightCount());
+        stats.put("rebuild", rebuild);
+        stats.put("pendingInvalidations", cacheInvalidator.getPendingCount());
+        stats.put("penetrationGuard", penetrationGuardAspect.snapshot());
+        Map<String, Object> warmUp = new LinkedHashMap<>();
+        warmUp.put("ready", shopCacheWarmUp.isReady());
+        warmUp.put("warmed", shopCacheWarmUp.getWarmedCount());
+        stats.put("warmUp", warmUp);
+        stats.put("expiryHistogram", expiryPolicy.getHistogram(EXPIRY_BUCKET_SECONDS));
+        return stats;
+    }
+}
@@ -0,0 +1,46 @@
+package com.hmdp.config;
+
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.BloomFilterUtil;
+import com.hmdp.utils.LocalCache;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_CHANNEL;
+
+/**
+ * Redis发布订阅配置
+ * 订阅缓存失效频道，收到消息后清除本节点的本地缓存
+ * 订阅店铺类型变更频道，收到新版本号后重新加载快照
+ * 订阅布隆过滤器增量频道，同步本地副本
+ */
+@Configuration
+public class RedisListenerConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory, LocalCache localCache, IShopTypeService shopTypeService,
+            BloomFilterUtil bloomFilterUtil) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 消息体就是被删除的缓存key
+        container.addMessageListener((message, pattern) ->
+                        localCache.remove(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        // 消息体是店铺类型的新版本号
+        container.addMessageListener((message, pattern) -> shopTypeService.onVersionChanged(
+                        Long.parseLong(new String(message.getBody(), StandardCharsets.UTF_8))),
+                new ChannelTopic(CACHE_SHOP_TYPE_CHANNEL));
+        container.addMessageListener((message, pattern) ->
+                        bloomFilterUtil.onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(BLOOM_FILTER_CHANNEL));
+        return container;
+    }
+}
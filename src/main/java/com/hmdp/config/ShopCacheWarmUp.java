@@ -0,0 +1,97 @@
+package com.hmdp.config;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+/**
+ * 店铺缓存预热
+ * 应用启动时按id分页流式读取店铺，并行编码后通过管道批量写入redis，
+ * 写入格式与 ShopServiceImpl.queryShop 的查询方式（缓存穿透方案，普通TTL）一致。
+ * 预热在启动流程中同步执行，完成前 ShopCacheWarmUpHealthIndicator 报告未就绪
+ */
+@Slf4j
+@Component
+public class ShopCacheWarmUp implements CommandLineRunner {
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Value("${hmdp.cache.warm-up.enabled:false}")
+    private boolean enabled;
+
+    @Value("${hmdp.cache.warm-up.batch-size:1000}")
+    private int batchSize;
+
+    // 已预热数量
+    private final AtomicLong warmed = new AtomicLong();
+
+    private volatile boolean ready;
+
+    @Override
+    public void run(String... args) {
+        if (!enabled) {
+            ready = true;
+            return;
+        }
+        log.info("开始预热店铺缓存...");
+        long begin = System.currentTimeMillis();
+        long lastId = 0;
+        while (true) {
+            // 按id分页，避免深分页的offset扫描
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + batchSize));
+            if (shops.isEmpty()) {
+                break;
+            }
+            Map<String, Shop> batch = new LinkedHashMap<>(shops.size() * 2);
+            for (Shop shop : shops) {
+                batch.put(CACHE_SHOP_KEY + shop.getId(), shop);
+            }
+            cacheClient.setBatch(batch, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            lastId = shops.get(shops.size() - 1).getId();
+            long count = warmed.addAndGet(shops.size());
+            long elapsed = Math.max(System.currentTimeMillis() - begin, 1);
+            log.info("店铺缓存预热进度：{} 条，耗时 {} ms，{} 条/秒", count, elapsed, count * 1000 / elapsed);
+            if (shops.size() < batchSize) {
+                break;
+            }
+        }
+        ready = true;
+        log.info("店铺缓存预热完成，共 {} 条，耗时 {} ms", warmed.get(), System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 是否预热完成
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 已预热的数量
+     */
+    public long getWarmedCount() {
+        return warmed.get();
+    }
+}
@@ -0,0 +1,24 @@
+package com.hmdp.config;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 店铺缓存预热状态：预热完成前为OUT_OF_SERVICE，
+ * 加入readiness分组（/actuator/health/readiness），预热期间不接收流量
+ */
+@Component
+public class ShopCacheWarmUpHealthIndicator implements HealthIndicator {
+
+    @Resource
+    private ShopCacheWarmUp shopCacheWarmUp;
+
+    @Override
+    public Health health() {
+        Health.Builder builder = shopCacheWarmUp.isReady() ? Health.up() : Health.outOfService();
+        return builder.withDetail("warmed", shopCacheWarmUp.getWarmedCount()).build();
+    }
+}
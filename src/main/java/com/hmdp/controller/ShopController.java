@@ -3,13 +3,17 @@ package com.hmdp.controller;
 
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.EncodedResponse;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.SystemConstants;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -28,12 +32,28 @@ public class ShopController {
 
     /**
      * 根据id查询商铺信息
+     * 直接输出已序列化的响应体；带ETag返回，If-None-Match一致时由Spring返回304
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-        return shopService.queryShopById(id);
+    public ResponseEntity<byte[]> queryShopById(@PathVariable("id") Long id) {
+        EncodedResponse response = shopService.queryShopDetail(id);
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+        if (response.getEtag() != null) {
+            builder.eTag(response.getEtag());
+        }
+        return builder.body(response.getBody());
+    }
+
+    /**
+     * 批量查询商铺卡片，只包含列表展示需要的字段
+     * @param ids 商铺id，多个以','隔开
+     * @return 商铺卡片列表
+     */
+    @GetMapping("/cards")
+    public Result queryShopCards(@RequestParam("ids") List<Long> ids) {
+        return shopService.queryShopCards(ids);
     }
 
     /**
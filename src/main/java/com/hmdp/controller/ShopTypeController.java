@@ -2,14 +2,19 @@ package com.hmdp.controller;
 
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.service.IShopTypeService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * <p>
@@ -25,9 +30,41 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
+    /**
+     * 查询店铺类型列表
+     * 直接输出快照中已序列化的响应体；带ETag返回，If-None-Match一致时由Spring返回304
+     */
     @GetMapping("list")
-    public Result queryTypeList() {
-        List<ShopType> typeList = typeService.queryTypeList();;
-        return Result.ok(typeList);
+    public ResponseEntity<byte[]> queryTypeList() {
+        ShopTypeSnapshot snapshot = typeService.getSnapshot();
+        return ResponseEntity.ok()
+                .eTag(snapshot.getEtag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getBody());
+    }
+
+    /**
+     * 新增店铺类型，各节点随后重新加载快照
+     * @param shopType 店铺类型数据
+     * @return 店铺类型id
+     */
+    @PostMapping
+    public Result saveType(@RequestBody ShopType shopType) {
+        typeService.save(shopType);
+        return Result.ok(shopType.getId());
+    }
+
+    /**
+     * 更新店铺类型，各节点随后重新加载快照
+     * @param shopType 店铺类型数据
+     * @return 无
+     */
+    @PutMapping
+    public Result updateType(@RequestBody ShopType shopType) {
+        if (shopType.getId() == null) {
+            return Result.fail("店铺类型id不能为空");
+        }
+        typeService.updateById(shopType);
+        return Result.ok();
     }
 }
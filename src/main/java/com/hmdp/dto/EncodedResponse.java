@@ -0,0 +1,24 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 已序列化的响应
+ */
+@Getter
+@AllArgsConstructor
+public class EncodedResponse {
+
+    // 生成该响应的数据对象，本地缓存返回同一个对象时可直接复用
+    private final Object source;
+
+    // 数据版本，用于判断是否可以复用
+    private final String version;
+
+    // 序列化后的响应体
+    private final byte[] body;
+
+    // 强ETag，为null时不支持条件请求
+    private final String etag;
+}
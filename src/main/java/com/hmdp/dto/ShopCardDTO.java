@@ -0,0 +1,16 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 店铺卡片，列表展示只需要的字段
+ */
+@Data
+public class ShopCardDTO {
+    private Long id;
+    private String name;
+    private String images;
+    private String area;
+    private Long avgPrice;
+    private Integer score;
+}
@@ -0,0 +1,33 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 店铺类型的不可变快照
+ * 同时保存已序列化好的响应体和对应的ETag，请求时直接输出，无需再次序列化
+ */
+@Getter
+public class ShopTypeSnapshot {
+
+    // 版本号，店铺类型变更时在redis中递增
+    private final long version;
+
+    private final List<ShopType> types;
+
+    // 序列化后的 Result.ok(types)
+    private final byte[] body;
+
+    // 强ETag，由版本号和响应体摘要组成
+    private final String etag;
+
+    public ShopTypeSnapshot(long version, List<ShopType> types, byte[] body, String etag) {
+        this.version = version;
+        this.types = Collections.unmodifiableList(types);
+        this.body = body;
+        this.etag = etag;
+    }
+}
@@ -13,4 +13,15 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 新增秒杀券时把库存和秒杀时间写入redis
+     */
+    void saveStock2Redis(SeckillVoucher voucher);
+
+    /**
+     * redis中没有秒杀信息时从数据库加载，不覆盖已有的库存；
+     * 不是秒杀券时记录短期标记，期间不再查询数据库
+     * @return 秒杀券是否存在
+     */
+    boolean loadStock2Redis(Long voucherId);
 }
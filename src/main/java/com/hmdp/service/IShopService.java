@@ -1,9 +1,12 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.EncodedResponse;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +19,9 @@ public interface IShopService extends IService<Shop> {
 
     Result queryShopById(Long id);
 
+    EncodedResponse queryShopDetail(Long id);
+
     Result update(Shop shop);
+
+    Result queryShopCards(List<Long> ids);
 }
@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -16,4 +17,10 @@ import java.util.List;
 public interface IShopTypeService extends IService<ShopType> {
 
     List<ShopType> queryTypeList();
+
+    ShopTypeSnapshot getSnapshot();
+
+    void onVersionChanged(long version);
+
+    void publishTypesChanged();
 }
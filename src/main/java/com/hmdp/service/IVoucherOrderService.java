@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -17,4 +20,16 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result setkill(Long voucherId);
     
     Result createVoucherOrder(Long voucherId);
+
+    /**
+     * 查询时间范围 [begin, end) 内的订单，按id升序分页
+     * @param lastId 上一页最后一条订单的id，第一页传null
+     * @param size 每页数量
+     */
+    List<VoucherOrder> queryByTime(LocalDateTime begin, LocalDateTime end, Long lastId, int size);
+
+    /**
+     * 统计时间范围 [begin, end) 内的订单数
+     */
+    long countByTime(LocalDateTime begin, LocalDateTime end);
 }
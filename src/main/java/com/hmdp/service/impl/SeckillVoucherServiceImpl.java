@@ -1,11 +1,30 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_EXPIRE_GRACE;
+import static com.hmdp.utils.RedisConstants.SECKILL_NONE_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -17,4 +36,73 @@ import org.springframework.stereotype.Service;
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Override
+    public void saveStock2Redis(SeckillVoucher voucher) {
+        Map<String, String> info = timeFields(voucher);
+        info.put("stock", String.valueOf(voucher.getStock()));
+        stringRedisTemplate.opsForHash().putAll(SECKILL_STOCK_KEY + voucher.getVoucherId(), info);
+        expire(voucher);
+        // 清除之前记录的不存在标记
+        stringRedisTemplate.delete(SECKILL_NONE_KEY + voucher.getVoucherId());
+    }
+
+    @Override
+    public boolean loadStock2Redis(Long voucherId) {
+        // 1.已知不是秒杀券，不再查询数据库
+        String noneKey = SECKILL_NONE_KEY + voucherId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(noneKey))) {
+            return false;
+        }
+        // 2.查询秒杀券，不存在时记录标记
+        SeckillVoucher voucher = getById(voucherId);
+        if (voucher == null) {
+            stringRedisTemplate.opsForValue().set(noneKey, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return false;
+        }
+        // 3.已经下单的用户，保证一人一单
+        List<Object> buyers = voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>()
+                .select("user_id")
+                .eq("voucher_id", voucherId));
+        if (!buyers.isEmpty()) {
+            stringRedisTemplate.opsForSet().add(SECKILL_ORDER_KEY + voucherId,
+                    buyers.stream().map(String::valueOf).toArray(String[]::new));
+        }
+        // 4.先写时间再写库存，脚本读到库存时时间一定已存在；
+        // 库存只在不存在时写入，避免覆盖其他节点加载后已经扣减的库存
+        String key = SECKILL_STOCK_KEY + voucherId;
+        stringRedisTemplate.opsForHash().putAll(key, timeFields(voucher));
+        stringRedisTemplate.opsForHash().putIfAbsent(key, "stock", String.valueOf(voucher.getStock()));
+        expire(voucher);
+        return true;
+    }
+
+    /**
+     * 秒杀结束一段时间后，秒杀信息和已购用户自动过期；
+     * 已经结束很久的秒杀券重新加载后至少保留CACHE_NULL_TTL，期间直接返回已结束，不再查询数据库
+     */
+    private void expire(SeckillVoucher voucher) {
+        long expireAt = Math.max(
+                toMillis(voucher.getEndTime()) + TimeUnit.MINUTES.toMillis(SECKILL_EXPIRE_GRACE),
+                System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+        Date date = new Date(expireAt);
+        stringRedisTemplate.expireAt(SECKILL_STOCK_KEY + voucher.getVoucherId(), date);
+        stringRedisTemplate.expireAt(SECKILL_ORDER_KEY + voucher.getVoucherId(), date);
+    }
+
+    private static Map<String, String> timeFields(SeckillVoucher voucher) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("begin", String.valueOf(toMillis(voucher.getBeginTime())));
+        fields.put("end", String.valueOf(toMillis(voucher.getEndTime())));
+        return fields;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 }
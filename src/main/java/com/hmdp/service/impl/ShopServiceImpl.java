@@ -1,26 +1,37 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.EncodedResponse;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopCardDTO;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.BloomFilterUtil;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.LocalCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -40,17 +51,86 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private BloomFilterUtil bloomFilterUtil;
 
-    // 线程池，用于异步重建缓存
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    @Resource
+    private CacheInvalidator cacheInvalidator;
     @Autowired
     private CacheClient cacheClient;
+    @Resource
+    private CacheMetrics cacheMetrics;
+    @Resource
+    private ObjectMapper objectMapper;
+    @Resource
+    private LocalCache localCache;
+
+    // 店铺详情已序列化的响应体，id -> 响应
+    private final LRUCache<Long, EncodedResponse> detailResponses;
 
-    public ShopServiceImpl(StringRedisTemplate stringRedisTemplate) {
+    public ShopServiceImpl(StringRedisTemplate stringRedisTemplate,
+                           @Value("${hmdp.cache.local.max-size:1000}") int detailResponseSize) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.detailResponses = CacheUtil.newLRUCache(detailResponseSize);
+    }
+
+    /**
+     * 店铺缓存失效时一并清除已序列化的响应体：
+     * 本节点在事务提交后清除，其他节点收到失效广播后清除
+     */
+    @PostConstruct
+    public void init() {
+        localCache.addRemovalListener(key -> {
+            String id = StrUtil.removePrefix(key, CACHE_SHOP_KEY);
+            if (id.length() < key.length() && StrUtil.isNumeric(id)) {
+                detailResponses.remove(Long.valueOf(id));
+            }
+        });
     }
 
     @Override
     public Result queryShopById(Long id) {
+        Shop shop = queryShop(id);
+        if(shop == null){
+            return Result.fail("店铺不存在");
+        }
+        return Result.ok(shop);
+    }
+
+    /**
+     * 查询店铺详情，返回已序列化的 Result
+     * 同一店铺同一版本（id + updateTime）只序列化一次，ETag由版本和响应体摘要组成
+     * @param id 店铺ID
+     * @return 已序列化的响应
+     */
+    @Override
+    public EncodedResponse queryShopDetail(Long id) {
+        Shop shop = queryShop(id);
+        if (shop == null) {
+            // 不存在的店铺不缓存响应体
+            return new EncodedResponse(null, null, encode(Result.fail("店铺不存在")), null);
+        }
+        long updateMillis = shop.getUpdateTime() == null ? 0L
+                : shop.getUpdateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        String version = id + "-" + updateMillis;
+        // 本地缓存返回同一个对象，或版本一致时直接复用
+        EncodedResponse cached = detailResponses.get(id, false);
+        if (cached != null && (cached.getSource() == shop || cached.getVersion().equals(version))) {
+            return cached;
+        }
+        byte[] body = encode(Result.ok(shop));
+        EncodedResponse response = new EncodedResponse(shop, version, body,
+                "\"" + version + "-" + DigestUtil.md5Hex(body).substring(0, 8) + "\"");
+        detailResponses.put(id, response);
+        return response;
+    }
+
+    private byte[] encode(Result result) {
+        try {
+            return objectMapper.writeValueAsBytes(result);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化店铺详情失败", e);
+        }
+    }
+
+    private Shop queryShop(Long id) {
         // 布隆过滤器+定时清理 ：缓存穿透
         //Shop shop = qureyShopWithPassThrough(id);
 
@@ -60,167 +140,36 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 逻辑过期缓存
         // Shop shop = queryShopWithLogicExpire(id);
 
-        Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        if(shop == null){
-            return Result.fail("店铺不存在");
-        }
-        return Result.ok(shop);
+        return cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
     /**
      * 解决缓存击穿：使用逻辑过期
      * 逻辑过期：数据永不过期，但设置逻辑过期时间，过期后异步重建缓存
+     * 提前刷新：根据上次重建耗时按概率在过期前提前重建，避免过期瞬间集中抢锁
      * 优点：不会阻塞用户请求，用户体验好
      * 
      * @param id 店铺ID
      * @return 店铺信息
      */
     public Shop queryShopWithLogicExpire(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-        String lockKey = LOCK_SHOP_KEY + id;
-
-        // 1.从redis中查询商铺缓存（RedisData格式）
-        String redisDataJson = stringRedisTemplate.opsForValue().get(key);
-
-        // 2.判断缓存是否存在
-        if (StrUtil.isBlank(redisDataJson)) {
-            // 缓存不存在，返回null（逻辑过期方案需要提前预热缓存）
-            return null;
-        }
-
-        // 3.解析RedisData对象
-        RedisData redisData = JSONUtil.toBean(redisDataJson, RedisData.class);
-        Shop shop = JSONUtil.toBean(JSONUtil.toJsonStr(redisData.getData()), Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-
-        // 4.判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            // 4.1 未过期，直接返回店铺数据
-            return shop;
-        }
-
-        // 4.2 已过期，需要重建缓存
-        // 5.获取互斥锁（确保只有一个线程重建缓存）
-        boolean isLock = tryLock(lockKey);
-        if (isLock) {
-            // 5.1 获取锁成功，双重检查（可能其他线程已经重建了缓存）
-            redisDataJson = stringRedisTemplate.opsForValue().get(key);
-            if (StrUtil.isNotBlank(redisDataJson)) { // 缓存已存在
-                RedisData newRedisData = JSONUtil.toBean(redisDataJson, RedisData.class);
-                LocalDateTime newExpireTime = newRedisData.getExpireTime();
-                // 再次检查是否已过期
-                if (newExpireTime.isAfter(LocalDateTime.now())) {
-                    // 其他线程已经重建了缓存，释放锁并返回新数据
-                    unlock(lockKey);
-                    return JSONUtil.toBean(JSONUtil.toJsonStr(newRedisData.getData()), Shop.class);
-                }
-            }
-            
-            // 5.2 开启独立线程异步重建缓存
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 重建缓存，使用逻辑过期时间（10秒，便于测试）
-                    this.saveShop2Redis(id, CACHE_SHOP_LOGIC_EXPIRE);
-                } catch (Exception e) {
-                    throw new RuntimeException("重建缓存异常", e);
-                } finally {
-                    // 释放锁
-                    unlock(lockKey);
-                }
-            });
-        }
-        
-        // 5.3 无论是否获取到锁，都返回旧数据（不阻塞用户，保证可用性）
-        return shop;
+        // 缓存不存在时返回null（逻辑过期方案需要提前预热缓存）
+        return cacheClient.queryWithRefreshAhead(CACHE_SHOP_KEY, id, Shop.class, this::getById,
+                CACHE_SHOP_LOGIC_EXPIRE, TimeUnit.SECONDS);
     }
 
     /**
      * 解决缓存击穿：使用互斥锁
      * 缓存击穿：热点key过期，大量并发请求同时访问数据库
-     * 解决：使用分布式锁，确保只有一个线程重建缓存
+     * 解决：进程内请求合并 + 分布式锁，确保只有一个线程重建缓存
      * 
      * @param id 店铺ID
      * @return 店铺信息
      */
     public Shop queryShopWithMutex(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-        String lockKey = LOCK_SHOP_KEY + id;
-        
-        // 1.从redis中查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        
-        // 2.判断缓存是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 存在，直接返回
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        
-        // 3.判断命中的是否是空值（解决缓存穿透）
-        if (shopJson != null) {
-            // 空值，返回null
-            return null;
-        }
-        
-        // 4.实现缓存重建，使用互斥锁
-        Shop shop = null;
-        int retryCount = 0;
-        int maxRetries = 3; // 最大重试次数
-        boolean isLocked = false;
-        
-        while (retryCount < maxRetries) {
-            try {
-                // 4.1 尝试获取互斥锁
-                boolean isLock = tryLock(lockKey);
-                
-                if (!isLock) {
-                    // 4.2 获取锁失败，休眠后重试
-                    retryCount++;
-                    if (retryCount >= maxRetries) {
-                        // 重试次数用完，返回null
-                        return null;
-                    }
-                    Thread.sleep(50);
-                    continue; // 继续重试
-                }
-                
-                // 标记已获取锁
-                isLocked = true;
-                
-                // 4.3 获取锁成功，双重检查缓存（重要：其他线程可能已经重建了缓存）
-                shopJson = stringRedisTemplate.opsForValue().get(key);
-                if (StrUtil.isNotBlank(shopJson)) {
-                    // 其他线程已经重建了缓存，直接返回
-                    return JSONUtil.toBean(shopJson, Shop.class);
-                }
-                
-                // 4.4 根据id查询数据库
-                shop = getById(id);
-                
-                // 5.数据库不存在，写入空值到缓存
-                if (shop == null) {
-                    stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                    return null;
-                }
-                
-                // 6.数据库存在，写入redis缓存
-                stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-                return shop; // 成功，返回结果
-                
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new RuntimeException("获取锁时被中断", e);
-            } catch (Exception e) {
-                throw new RuntimeException("查询店铺异常", e);
-            } finally {
-                // 确保锁被释放
-                if (isLocked) {
-                    unlock(lockKey);
-                    isLocked = false;
-                }
-            }
-        }
-        
-        return shop;
+        // 本节点内的并发未命中合并为一次数据库查询，互斥锁只用于跨节点互斥
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById,
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
     /**
@@ -229,17 +178,17 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      * @param expireSeconds 过期秒数
      */
     public void saveShop2Redis(Long id, Long expireSeconds) {
-        // 1.查询店铺数据
+        // 1.查询店铺数据，并记录重建耗时
+        long begin = System.currentTimeMillis();
         Shop shop = getById(id);
+        long cost = System.currentTimeMillis() - begin;
+        cacheMetrics.recordDbFallback(CACHE_SHOP_KEY, TimeUnit.MILLISECONDS.toNanos(cost));
         if (shop == null) {
             throw new RuntimeException("店铺不存在，ID: " + id);
         }
-        // 2.封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        // 3.写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+        // 2.按当前编码格式写入逻辑过期缓存，过期时间加入随机抖动
+        cacheClient.setWithLogicExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS, cost);
+        cacheMetrics.recordRebuild(CACHE_SHOP_KEY, cost);
     }
 
     /**
@@ -254,54 +203,13 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return null;
         }
 
-        // 1.从redis中查询商铺缓存
-        String key = CACHE_SHOP_KEY + id;
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断缓存是否命中
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3.命中
-            Shop shop = BeanUtil.toBean(shopJson, Shop.class);
-            return shop;
-        }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            return null;
-        }
-
-        // 4.未命中，查询数据库
-        Shop shop = getById(id);
-        if (shop == null) {
-            // 5.数据库不存在
-            // 【补充防护】虽然布隆过滤器已经过滤了大部分不存在的ID，
-            // 但以下场景仍需要缓存空对象：
-            // 1. 布隆过滤器误判（说存在但实际不存在）
-            // 2. 店铺被删除后，布隆过滤器仍可能判断存在
-            // 3. 初始化后的新增/删除数据的时间差
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
-        }
-        // 6.数据库存在，写入缓存
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        // 7.返回
-        return shop;
-    }
-
-    /**
-     * 尝试获取锁
-     * @param key
-     * @return
-     */
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return Boolean.TRUE.equals(flag);
-    }
-
-    /**
-     * 释放锁
-     * @param key 锁的key
-     */
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+        // 【补充防护】虽然布隆过滤器已经过滤了大部分不存在的ID，
+        // 但以下场景仍需要记录不存在的ID（按时间片记入负缓存，不再逐个写入空值key）：
+        // 1. 布隆过滤器误判（说存在但实际不存在）
+        // 2. 店铺被删除后，布隆过滤器仍可能判断存在
+        // 3. 初始化后的新增/删除数据的时间差
+        return cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById,
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
     @Override
@@ -313,8 +221,26 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         // 1.更新数据库
         updateById(shop);
-        // 2.删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 2.事务提交后异步删除缓存（批量删除、延迟双删，同时通知各节点清除本地缓存和响应体）
+        cacheInvalidator.invalidateAfterCommit(CACHE_SHOP_KEY + id, CACHE_SHOP_HASH_KEY + id);
         return Result.ok();
     }
+
+    /**
+     * 批量查询店铺卡片
+     * 店铺以hash结构缓存，只通过HMGET读取卡片需要的字段，不读取地址、营业时间等
+     * @param ids 店铺id
+     * @return 店铺卡片列表，按传入顺序，不存在的店铺不返回
+     */
+    @Override
+    public Result queryShopCards(List<Long> ids) {
+        // 布隆过滤器一次管道批量过滤一定不存在的id
+        Map<String, Boolean> exists = bloomFilterUtil.mightContainAll(BLOOM_FILTER_SHOP_KEY,
+                ids.stream().map(String::valueOf).collect(Collectors.toList()));
+        ids = ids.stream().filter(id -> exists.get(String.valueOf(id))).collect(Collectors.toList());
+        Map<Long, ShopCardDTO> cards = cacheClient.queryBatchProjection(CACHE_SHOP_HASH_KEY, ids, ShopCardDTO.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        return Result.ok(cards.values());
+    }
 }
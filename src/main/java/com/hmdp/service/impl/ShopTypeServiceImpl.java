@@ -1,15 +1,28 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.ExpiryPolicy;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -23,17 +36,143 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public ShopTypeServiceImpl(StringRedisTemplate stringRedisTemplate) {
+    private final ExpiryPolicy expiryPolicy;
+
+    private final CacheMetrics cacheMetrics;
+
+    private final ObjectMapper objectMapper;
+
+    // 进程内快照，版本变化时整体替换
+    private volatile ShopTypeSnapshot snapshot;
+
+    public ShopTypeServiceImpl(StringRedisTemplate stringRedisTemplate, ExpiryPolicy expiryPolicy,
+                               CacheMetrics cacheMetrics, ObjectMapper objectMapper) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.expiryPolicy = expiryPolicy;
+        this.cacheMetrics = cacheMetrics;
+        this.objectMapper = objectMapper;
     }
 
     @Override
     public List<ShopType> queryTypeList() {
+        return getSnapshot().getTypes();
+    }
+
+    /**
+     * 获取店铺类型快照，正常情况下只读取内存，不访问redis
+     */
+    @Override
+    public ShopTypeSnapshot getSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        return reload(currentVersion());
+    }
+
+    /**
+     * 版本号变化时重新加载快照
+     * @param version 最新的版本号
+     */
+    @Override
+    public void onVersionChanged(long version) {
+        ShopTypeSnapshot current = snapshot;
+        if (current == null || current.getVersion() < version) {
+            reload(version);
+        }
+    }
+
+    @Override
+    public boolean save(ShopType entity) {
+        return publishAfterCommit(super.save(entity));
+    }
+
+    @Override
+    public boolean updateById(ShopType entity) {
+        return publishAfterCommit(super.updateById(entity));
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        return publishAfterCommit(super.removeById(id));
+    }
+
+    /**
+     * 写入成功时，在事务提交后发布变更；没有事务时立即发布
+     * @param changed 是否写入成功
+     */
+    private boolean publishAfterCommit(boolean changed) {
+        if (!changed) {
+            return false;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    publishTypesChanged();
+                }
+            });
+        } else {
+            publishTypesChanged();
+        }
+        return true;
+    }
+
+    /**
+     * 店铺类型变更后调用（新增、修改、删除时自动调用）：删除redis缓存，递增版本号并广播，各节点重新加载快照
+     */
+    @Override
+    public void publishTypesChanged() {
+        stringRedisTemplate.delete(CACHE_SHOP_TYPE_KEY);
+        Long version = stringRedisTemplate.opsForValue().increment(CACHE_SHOP_TYPE_VERSION_KEY);
+        stringRedisTemplate.convertAndSend(CACHE_SHOP_TYPE_CHANNEL, String.valueOf(version));
+    }
+
+    /**
+     * 定期对比版本号，兜底发布订阅丢失的消息
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.shop-type.version-check-millis:60000}")
+    public void checkVersion() {
+        if (snapshot != null) {
+            onVersionChanged(currentVersion());
+        }
+    }
+
+    private long currentVersion() {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+        return StrUtil.isBlank(version) ? 0L : Long.parseLong(version);
+    }
+
+    /**
+     * 加载快照，同一时刻只有一个线程加载
+     */
+    private synchronized ShopTypeSnapshot reload(long version) {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null && current.getVersion() >= version) {
+            // 其他线程已经加载
+            return current;
+        }
+        List<ShopType> typeList = loadTypeList();
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(typeList));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化店铺类型失败", e);
+        }
+        String etag = "\"" + version + "-" + DigestUtil.md5Hex(body) + "\"";
+        ShopTypeSnapshot loaded = new ShopTypeSnapshot(version, typeList, body, etag);
+        snapshot = loaded;
+        log.debug("店铺类型快照已更新，版本：{}", version);
+        return loaded;
+    }
+
+    private List<ShopType> loadTypeList() {
         // 1.从redis中查询
         String key = CACHE_SHOP_TYPE_KEY;
         String typeListJson = stringRedisTemplate.opsForValue().get(key);
@@ -41,23 +180,26 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
         // 2.判断缓存是否命中
         if (StrUtil.isNotBlank(typeListJson)) {
             // 3.命中，直接返回
-            List<ShopType> typeList = JSONUtil.toList(typeListJson, ShopType.class);
-            return typeList;
+            cacheMetrics.hit(key);
+            return JSONUtil.toList(typeListJson, ShopType.class);
         }
         
         // 4.未命中，查询数据库，按sort字段排序
+        cacheMetrics.miss(key);
+        long begin = System.nanoTime();
         QueryWrapper<ShopType> queryWrapper = new QueryWrapper<>();
         queryWrapper.orderByAsc("sort");
         List<ShopType> typeList = list(queryWrapper);
+        cacheMetrics.recordDbFallback(key, System.nanoTime() - begin);
 
         // 5.数据库不存在
         if (typeList == null) {
-            return null;
+            return Collections.emptyList();
         }
         
         // 6.数据库存在，写入缓存
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(typeList), 
-                CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES);
+        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(typeList),
+                expiryPolicy.ttlMillis(key, CACHE_SHOP_TYPE_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS);
         
         // 7.返回
         return typeList;
@@ -10,6 +10,7 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheInvalidator;
 import com.hmdp.utils.RegexUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -17,6 +18,7 @@ import org.springframework.stereotype.Service;
 
 import javax.servlet.http.HttpSession;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -39,8 +41,35 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public UserServiceImpl(StringRedisTemplate stringRedisTemplate) {
+    private final CacheInvalidator cacheInvalidator;
+
+    public UserServiceImpl(StringRedisTemplate stringRedisTemplate, CacheInvalidator cacheInvalidator) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheInvalidator = cacheInvalidator;
+    }
+
+    /**
+     * 更新用户，事务提交后删除用户缓存（cache:user:{id}）
+     */
+    @Override
+    public boolean updateById(User entity) {
+        boolean updated = super.updateById(entity);
+        if (updated) {
+            cacheInvalidator.invalidateAfterCommit(CACHE_USER_KEY + entity.getId());
+        }
+        return updated;
+    }
+
+    /**
+     * 删除用户，事务提交后删除用户缓存
+     */
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean removed = super.removeById(id);
+        if (removed) {
+            cacheInvalidator.invalidateAfterCommit(CACHE_USER_KEY + id);
+        }
+        return removed;
     }
 
     @Override
@@ -85,8 +114,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         User user = new User();
         user.setPhone(phone);
         user.setNickName(USER_NICK_NAME_PREFIX + RandomUtil.randomString(10));
-        // 2.保存用户
+        // 2.保存用户，事务提交后删除该id的缓存，并从负缓存中移除（之前可能被记录为不存在）
         save(user);
+        cacheInvalidator.invalidateAfterCommit(CACHE_USER_KEY + user.getId());
         return user;
     }
 
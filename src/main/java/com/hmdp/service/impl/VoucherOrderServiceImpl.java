@@ -1,25 +1,33 @@
 package com.hmdp.service.impl;
 
 import com.hmdp.dto.Result;
-import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.PenetrationGuard;
 import com.hmdp.utils.RedisIdWorker;
-import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SnowflakeIdWorker;
 import com.hmdp.utils.UserHolder;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -32,66 +40,139 @@ import java.time.LocalDateTime;
 @Service
 @Transactional
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
+    // 按时间查询订单时每页的最大数量
+    private static final int MAX_QUERY_SIZE = 1000;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    // 秒杀脚本返回值对应的提示，下标为返回值
+    private static final String[] SECKILL_FAILURES = {"", "库存不足", "不允许重复下单", "秒杀尚未开始", "秒杀已结束", "优惠券不存在"};
+
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
     private RedisIdWorker redisIdWorker;
+    @Resource
+    private SnowflakeIdWorker snowflakeIdWorker;
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
-    @Resource
-    private RedissonClient redissonClient;
+
+    /**
+     * 开启Snowflake时，已有订单的id必须都小于将要生成的id
+     */
+    @PostConstruct
+    public void checkOrderId() {
+        if (!snowflakeIdWorker.isEnabled()) {
+            return;
+        }
+        VoucherOrder last = query().select("id").orderByDesc("id").last("limit 1").one();
+        if (last != null) {
+            snowflakeIdWorker.checkAbove(last.getId());
+        }
+    }
 
     @Override
+    @PenetrationGuard(entity = Voucher.class, message = "优惠券不存在")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public Result setkill(Long voucherId) {
         // 0. 检查用户登录状态
         if (UserHolder.getUser() == null) {
             return Result.fail("用户未登录");
         }
         Long userid = UserHolder.getUser().getId();
-        
-        // 1. 查询优惠券
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
-        // 1.1 判断优惠券是否存在
-        if (voucher == null) {
-            return Result.fail("优惠券不存在");
+
+        // 1. 执行lua脚本：判断秒杀时间、库存、一人一单，通过后扣减库存并记录用户
+        long r = executeSeckillScript(voucherId, userid);
+        if (r == 5) {
+            // 1.1 redis中还没有秒杀信息，从数据库加载一次
+            if (!seckillVoucherService.loadStock2Redis(voucherId)) {
+                return Result.fail("优惠券不存在");
+            }
+            r = executeSeckillScript(voucherId, userid);
         }
-        // 2.判断秒杀是否开始
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
-            return Result.fail("秒杀尚未开始");
+        // 2. 没有购买资格，直接返回，不访问数据库
+        if (r != 0) {
+            return Result.fail(SECKILL_FAILURES[(int) r]);
         }
-        // 3.判断秒杀是否结束
-        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
-            return Result.fail("秒杀已结束");
+
+        // 3. 有购买资格，创建订单
+        Result result;
+        try {
+            // 获取代理对象，确保事务生效
+            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
+            result = proxy.createVoucherOrder(voucherId);
+        } catch (RuntimeException e) {
+            // 事务已回滚，归还redis中的库存和购买资格
+            rollbackSeckill(voucherId, userid, true);
+            throw e;
         }
-        // 4.判断库存
-        if (voucher.getStock() < 1) {
-            return Result.fail("库存不足");
+        if (!Boolean.TRUE.equals(result.getSuccess())) {
+            // 数据库库存不足，redis中的库存已扣减，只归还购买资格
+            rollbackSeckill(voucherId, userid, false);
         }
+        return result;
+    }
 
-        // 5. 获取分布式锁，防止同一用户重复下单
-//        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, "order:" + userid);
-//        boolean isLock = lock.tryLock(1200);
-//        if (!isLock) {
-//            // 获取锁失败，返回失败
-//            return Result.fail("不允许重复下单");
-//        }
-
-        RLock lock = redissonClient.getLock("order:" + userid);
-        boolean isLock = lock.tryLock();
-        if (!isLock) {
-            // 获取锁失败，返回失败
-            return Result.fail("不允许重复下单");
+    private long executeSeckillScript(Long voucherId, Long userId) {
+        Long r = stringRedisTemplate.execute(SECKILL_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId),
+                userId.toString(), String.valueOf(System.currentTimeMillis()));
+        if (r == null) {
+            throw new IllegalStateException("秒杀脚本执行失败：" + voucherId);
         }
+        return r;
+    }
 
-        try {
-            // 获取代理对象，确保事务生效
-            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-            return proxy.createVoucherOrder(voucherId);
-        } finally {
-            lock.unlock();
+    /**
+     * 订单没有落库时，撤销lua脚本中记录的购买资格
+     * @param restoreStock 是否同时归还库存
+     */
+    private void rollbackSeckill(Long voucherId, Long userId, boolean restoreStock) {
+        stringRedisTemplate.opsForSet().remove(SECKILL_ORDER_KEY + voucherId, userId.toString());
+        if (restoreStock) {
+            stringRedisTemplate.opsForHash().increment(SECKILL_STOCK_KEY + voucherId, "stock", 1);
         }
     }
-    
+
+    /**
+     * 订单id的高位是生成时间，时间条件转换为主键范围，走聚簇索引的范围扫描，不再全表扫描create_time
+     */
+    @Override
+    public List<VoucherOrder> queryByTime(LocalDateTime begin, LocalDateTime end, Long lastId, int size) {
+        // 1.时间范围转换为id范围
+        long minId = minIdAt(begin);
+        long maxId = minIdAt(end);
+        // 2.按id分页：从上一页最后一条之后继续，避免深分页的offset扫描
+        return query()
+                .ge("id", minId)
+                .gt(lastId != null, "id", lastId)
+                .lt("id", maxId)
+                .orderByAsc("id")
+                .last("limit " + Math.min(Math.max(size, 1), MAX_QUERY_SIZE))
+                .list();
+    }
+
+    @Override
+    public long countByTime(LocalDateTime begin, LocalDateTime end) {
+        return query()
+                .ge("id", minIdAt(begin))
+                .lt("id", minIdAt(end))
+                .count();
+    }
+
+    /**
+     * 按当前使用的id格式计算时间对应的最小id
+     * 开启Snowflake时，启用之前的订单按RedisIdWorker的格式计算
+     */
+    private long minIdAt(LocalDateTime time) {
+        return snowflakeIdWorker.isEnabled() ? snowflakeIdWorker.minIdAt(time) : RedisIdWorker.minIdAt(time);
+    }
+
     @Override
     public Result createVoucherOrder(Long voucherId) {
         // 这个方法会被代理调用，确保事务生效
@@ -99,14 +180,10 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }
 
     private Result getResult(Long voucherId) {
-        // 1. 再次查询优惠券（双重检查，确保数据最新）
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
-        if (voucher == null) {
-            return Result.fail("优惠券不存在");
-        }
-        
+        // 1. 资格已在redis中判断，这里只有抢到的请求才会执行
+
         // 2. 扣减库存: 乐观锁(CAS)
-        // 使用 stock > 0 作为条件，确保库存大于0才能扣减
+        // 使用 stock > 0 作为条件，确保库存大于0才能扣减；秒杀券不存在时同样更新失败
         boolean update = seckillVoucherService.update()
                 .setSql("stock = stock - 1")
                 .eq("voucher_id", voucherId)
@@ -120,7 +197,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 3. 创建订单
         Long userid = UserHolder.getUser().getId();
         VoucherOrder voucherOrder = new VoucherOrder();
-        long orderId = redisIdWorker.nextId("order");
+        // 开启Snowflake时生成id不访问redis
+        long orderId = snowflakeIdWorker.isEnabled() ? snowflakeIdWorker.nextId() : redisIdWorker.nextId("order");
         voucherOrder.setId(orderId);
         voucherOrder.setUserId(userid);
         voucherOrder.setVoucherId(voucherId);
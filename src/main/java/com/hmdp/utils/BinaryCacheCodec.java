@@ -0,0 +1,372 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑二进制编解码，适用于Shop、SeckillVoucher这类字段都是基本类型的实体
+ *
+ * 格式：魔数(1) + 标志位(1) + 逻辑过期时间戳(8) + 重建耗时(8) + 结构指纹(4) + 数据
+ * 头部定长，判断是否过期只需读取头部，不用解析数据部分。
+ * 数据部分：空值位图 + 按字段名排序依次写入非空字段，整数使用zigzag变长编码。
+ * 含有不支持类型字段的类，数据部分退化为JSON。
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    // 魔数，不可能是JSON的第一个字节，用于和旧的JSON缓存区分
+    private static final byte MAGIC = (byte) 0xB1;
+    private static final byte FLAG_LOGIC_EXPIRE = 1;
+    private static final byte FLAG_JSON_PAYLOAD = 1 << 1;
+    private static final int HEADER_SIZE = 22;
+    private static final long NONE = -1L;
+
+    private static final byte T_LONG = 1;
+    private static final byte T_INT = 2;
+    private static final byte T_DOUBLE = 3;
+    private static final byte T_BOOLEAN = 4;
+    private static final byte T_STRING = 5;
+    private static final byte T_DATE_TIME = 6;
+
+    private final ConcurrentHashMap<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    public static boolean isBinary(byte[] bytes) {
+        return bytes != null && bytes.length >= HEADER_SIZE && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public boolean supports(byte[] bytes) {
+        return isBinary(bytes);
+    }
+
+    @Override
+    public byte[] encode(Object value, LocalDateTime expireTime, Long rebuildCost) {
+        if (value == null) {
+            throw new IllegalArgumentException("缓存值不能为null");
+        }
+        Schema schema = schemaOf(value.getClass());
+        Output out = new Output(HEADER_SIZE + 128);
+        byte flags = 0;
+        if (expireTime != null) {
+            flags |= FLAG_LOGIC_EXPIRE;
+        }
+        if (!schema.binary) {
+            flags |= FLAG_JSON_PAYLOAD;
+        }
+        out.writeByte(MAGIC);
+        out.writeByte(flags);
+        out.writeFixedLong(expireTime == null ? NONE : toMillis(expireTime));
+        out.writeFixedLong(rebuildCost == null ? NONE : rebuildCost);
+        out.writeFixedInt(schema.fingerprint);
+        if (schema.binary) {
+            writeFields(out, schema, value);
+        } else {
+            out.writeBytes(JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public CacheEntry decode(byte[] bytes, boolean logicExpire) {
+        ByteBuffer header = ByteBuffer.wrap(bytes, 0, HEADER_SIZE);
+        header.get();
+        byte flags = header.get();
+        long expireMillis = header.getLong();
+        long rebuildCost = header.getLong();
+        int fingerprint = header.getInt();
+        LocalDateTime expireTime = (flags & FLAG_LOGIC_EXPIRE) != 0 ? toDateTime(expireMillis) : null;
+        return new CacheEntry(expireTime, rebuildCost == NONE ? null : rebuildCost) {
+            @Override
+            public <R> R getData(Class<R> type) {
+                if ((flags & FLAG_JSON_PAYLOAD) != 0) {
+                    return JSONUtil.toBean(new String(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE,
+                            StandardCharsets.UTF_8), type);
+                }
+                Schema schema = schemaOf(type);
+                if (schema.fingerprint != fingerprint) {
+                    // 类结构已变化，当作未命中处理
+                    return null;
+                }
+                return type.cast(readFields(new Input(bytes, HEADER_SIZE), schema));
+            }
+        };
+    }
+
+    private Schema schemaOf(Class<?> type) {
+        return schemas.computeIfAbsent(type, Schema::new);
+    }
+
+    private static void writeFields(Output out, Schema schema, Object value) {
+        Object[] values = new Object[schema.fields.length];
+        byte[] nullBits = new byte[(schema.fields.length + 7) / 8];
+        try {
+            for (int i = 0; i < schema.fields.length; i++) {
+                values[i] = schema.fields[i].get(value);
+                if (values[i] == null) {
+                    nullBits[i >> 3] |= 1 << (i & 7);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        out.writeBytes(nullBits);
+        for (int i = 0; i < values.length; i++) {
+            Object v = values[i];
+            if (v == null) {
+                continue;
+            }
+            switch (schema.types[i]) {
+                case T_LONG:
+                    out.writeVarLong((Long) v);
+                    break;
+                case T_INT:
+                    out.writeVarLong((Integer) v);
+                    break;
+                case T_DOUBLE:
+                    out.writeFixedLong(Double.doubleToRawLongBits((Double) v));
+                    break;
+                case T_BOOLEAN:
+                    out.writeByte((byte) ((Boolean) v ? 1 : 0));
+                    break;
+                case T_STRING:
+                    byte[] str = ((String) v).getBytes(StandardCharsets.UTF_8);
+                    out.writeVarLong(str.length);
+                    out.writeBytes(str);
+                    break;
+                case T_DATE_TIME:
+                    LocalDateTime time = (LocalDateTime) v;
+                    out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+                    out.writeVarLong(time.getNano());
+                    break;
+                default:
+                    throw new IllegalStateException("不支持的字段类型");
+            }
+        }
+    }
+
+    private static Object readFields(Input in, Schema schema) {
+        try {
+            Object value = schema.constructor.newInstance();
+            byte[] nullBits = in.readBytes((schema.fields.length + 7) / 8);
+            for (int i = 0; i < schema.fields.length; i++) {
+                if ((nullBits[i >> 3] & (1 << (i & 7))) != 0) {
+                    continue;
+                }
+                Object v;
+                switch (schema.types[i]) {
+                    case T_LONG:
+                        v = in.readVarLong();
+                        break;
+                    case T_INT:
+                        v = (int) in.readVarLong();
+                        break;
+                    case T_DOUBLE:
+                        v = Double.longBitsToDouble(in.readFixedLong());
+                        break;
+                    case T_BOOLEAN:
+                        v = in.readByte() != 0;
+                        break;
+                    case T_STRING:
+                        int length = (int) in.readVarLong();
+                        v = new String(in.readBytes(length), StandardCharsets.UTF_8);
+                        break;
+                    case T_DATE_TIME:
+                        long seconds = in.readVarLong();
+                        v = LocalDateTime.ofEpochSecond(seconds, (int) in.readVarLong(), ZoneOffset.UTC);
+                        break;
+                    default:
+                        throw new IllegalStateException("不支持的字段类型");
+                }
+                schema.fields[i].set(value, v);
+            }
+            return value;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    /**
+     * 类的字段结构，按字段名排序，指纹用于检测类结构变化
+     */
+    private static class Schema {
+        private final Field[] fields;
+        private final byte[] types;
+        private final boolean binary;
+        private final int fingerprint;
+        private final Constructor<?> constructor;
+
+        Schema(Class<?> type) {
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    list.add(field);
+                }
+            }
+            list.sort(Comparator.comparing(Field::getName));
+            this.fields = list.toArray(new Field[0]);
+            this.types = new byte[fields.length];
+            boolean allSupported = true;
+            int hash = type.getName().hashCode();
+            for (int i = 0; i < fields.length; i++) {
+                types[i] = typeOf(fields[i].getType());
+                allSupported &= types[i] != 0;
+                hash = 31 * hash + fields[i].getName().hashCode();
+                hash = 31 * hash + types[i];
+            }
+            this.fingerprint = hash;
+            Constructor<?> ctor = null;
+            try {
+                ctor = type.getDeclaredConstructor();
+                ctor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                allSupported = false;
+            }
+            this.constructor = ctor;
+            this.binary = allSupported;
+        }
+
+        private static byte typeOf(Class<?> c) {
+            if (c == Long.class) {
+                return T_LONG;
+            }
+            if (c == Integer.class) {
+                return T_INT;
+            }
+            if (c == Double.class) {
+                return T_DOUBLE;
+            }
+            if (c == Boolean.class) {
+                return T_BOOLEAN;
+            }
+            if (c == String.class) {
+                return T_STRING;
+            }
+            if (c == LocalDateTime.class) {
+                return T_DATE_TIME;
+            }
+            // 基本类型和其他类型不支持，整个对象退化为JSON
+            return 0;
+        }
+    }
+
+    private static class Output {
+        private byte[] buf;
+        private int pos;
+
+        Output(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void writeByte(byte b) {
+            ensure(1);
+            buf[pos++] = b;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void writeFixedInt(int v) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (v >>> shift);
+            }
+        }
+
+        void writeFixedLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (v >>> shift);
+            }
+        }
+
+        void writeVarLong(long v) {
+            // zigzag，负数也能用较少字节表示
+            long zz = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((zz & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((zz & 0x7F) | 0x80);
+                zz >>>= 7;
+            }
+            buf[pos++] = (byte) zz;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+    }
+
+    private static class Input {
+        private final byte[] buf;
+        private int pos;
+
+        Input(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        byte readByte() {
+            return buf[pos++];
+        }
+
+        byte[] readBytes(int n) {
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + n);
+            pos += n;
+            return bytes;
+        }
+
+        long readFixedLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        long readVarLong() {
+            long zz = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                zz |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zz >>> 1) ^ -(zz & 1);
+        }
+    }
+}
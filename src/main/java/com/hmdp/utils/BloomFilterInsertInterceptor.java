@@ -0,0 +1,74 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.baomidou.mybatisplus.core.metadata.TableInfo;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.hmdp.config.BloomFilterInit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * 新增受保护的实体后，把id写入对应的布隆过滤器，避免新数据被 @PenetrationGuard 拦截
+ * 注册为Bean后由MyBatis-Plus自动加载。save() 插入后即可取到自增id；
+ * saveBatch() 使用批量执行器，自增id在flushStatements时才回填，因此同时拦截flushStatements
+ */
+@Slf4j
+@Component
+@Intercepts({
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+        @Signature(type = Executor.class, method = "flushStatements", args = {})
+})
+public class BloomFilterInsertInterceptor implements Interceptor {
+
+    @Resource
+    private BloomFilterUtil bloomFilterUtil;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object intercept(Invocation invocation) throws Throwable {
+        Object result = invocation.proceed();
+        if (invocation.getArgs().length == 0) {
+            // flushStatements
+            for (BatchResult batch : (List<BatchResult>) result) {
+                if (batch.getMappedStatement().getSqlCommandType() == SqlCommandType.INSERT) {
+                    batch.getParameterObjects().forEach(this::addToFilter);
+                }
+            }
+            return result;
+        }
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        if (ms.getSqlCommandType() == SqlCommandType.INSERT) {
+            addToFilter(invocation.getArgs()[1]);
+        }
+        return result;
+    }
+
+    private void addToFilter(Object entity) {
+        if (entity == null || !BloomFilterInit.GUARDED_ENTITIES.contains(entity.getClass())) {
+            return;
+        }
+        TableInfo tableInfo = TableInfoHelper.getTableInfo(entity.getClass());
+        Object id = ReflectUtil.getFieldValue(entity, tableInfo.getKeyProperty());
+        if (id == null) {
+            // 批量插入时id尚未回填，flushStatements时再写入
+            return;
+        }
+        try {
+            bloomFilterUtil.add(BloomFilterUtil.keyOf(entity.getClass()), id.toString());
+        } catch (Exception e) {
+            // 写入失败不影响新增本身，定期重建时会补上
+            log.error("新增数据写入布隆过滤器失败：{} {}", entity.getClass().getSimpleName(), id, e);
+        }
+    }
+}
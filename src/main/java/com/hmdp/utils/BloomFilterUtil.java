@@ -1,29 +1,316 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.BitFieldSubCommands.BitFieldIncrBy;
+import org.springframework.data.redis.connection.BitFieldSubCommands.BitFieldType;
+import org.springframework.data.redis.connection.BitFieldSubCommands.Offset;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_CHANNEL;
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_KEY_PREFIX;
 
 /**
  * 布隆过滤器工具类
  * 使用Redis BitMap实现，用于解决缓存穿透问题
+ * 每个元素的所有位通过一条BITFIELD命令读写，批量操作使用管道，每次查询只有一次网络往返
+ * 位数组大小和哈希函数个数根据预计元素数量和期望误判率计算，
+ * 哈希使用一次Murmur3-128得到两个64位哈希，再用 h1 + i * h2 生成任意多个位置（Kirsch–Mitzenmacher）
+ * 开启本地副本后，启动时一次GET读取整个位数组到内存，查询不再访问redis；
+ * 其他节点的新增通过发布订阅同步增量，并定期按版本号全量同步。
+ * 布隆过滤器可以按代重建：新一代写入临时key，重建期间的新增同时写入两代，完成后原子替换；
+ * 每一代的位数组大小按当时的元素数量计算，和代标识一起记录在 key:meta 中；
+ * 各节点缓存的布局在每次读写时与redis中的代标识核对，不一致说明已被其他节点替换，重新读取布局。
+ * 开启计数模式后，每个位置另有4位计数器，支持删除元素。
+ * 布隆过滤器完成第一次重建（key:meta 中有代标识）之前视为未就绪，查询一律返回可能存在（放行），不会误拦正常请求；
+ * 没有meta的位数组（如旧版本按其他哈希方式写入的）视为未构建，不会被使用
  */
+@Slf4j
 @Component
 public class BloomFilterUtil {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    // 布隆过滤器的位数组大小（2的32次方，约42亿位）
-    private static final long BIT_ARRAY_SIZE = 1L << 32;
-    
-    // 哈希函数数量（使用多个哈希函数可以降低误判率）
-    private static final int HASH_COUNT = 3;
+    @Resource
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    // Redis字符串最大512MB，位偏移不能超过 2^32 - 1
+    private static final long MAX_BIT_SIZE = 1L << 32;
+
+    // 计数器位宽
+    private static final int COUNTER_BITS = 4;
+
+    // 批量添加时每个管道包含的元素数
+    private static final int BATCH_CHUNK_SIZE = 1000;
+
+    // 重建标记的存活时间，重建异常中断时自动失效
+    private static final long BUILDING_TTL_MINUTES = 60;
+
+    // 元素数量达到该值时并行计算哈希
+    private static final int PARALLEL_HASH_THRESHOLD = 256;
+
+    // 未就绪时检查redis中是否已有布隆过滤器的最小间隔
+    private static final long READY_CHECK_INTERVAL_MILLIS = 1000;
+
+    // 布局与位数组不一致（读取期间被替换）时的最多尝试次数
+    private static final int LAYOUT_ATTEMPTS = 3;
+
+    // key:meta 中的代标识字段，每次重建生成新的值
+    private static final String GENERATION_FIELD = "gen";
+
+    private static final BitFieldType BIT = BitFieldType.unsigned(1);
+    private static final BitFieldType COUNTER = BitFieldType.unsigned(COUNTER_BITS);
+
+    private static final DefaultRedisScript<Long> REMOVE_SCRIPT;
+    static {
+        REMOVE_SCRIPT = new DefaultRedisScript<>();
+        REMOVE_SCRIPT.setLocation(new ClassPathResource("bloom_remove.lua"));
+        REMOVE_SCRIPT.setResultType(Long.class);
+    }
+
+    // 预计元素数量和期望误判率
+    private final long expectedInsertions;
+    private final double fpp;
+
+    // 没有meta记录时使用的默认布局
+    private final Layout defaultLayout;
+
+    // 是否开启本地副本
+    private final boolean localReplica;
+
+    // 是否开启计数模式（支持删除）
+    private final boolean counting;
+
+    // 布隆过滤器key -> 本地副本
+    private final Map<String, LocalBloomReplica> replicas = new ConcurrentHashMap<>();
+
+    // 布隆过滤器key -> 布局（位数组大小和哈希函数个数）
+    private final Map<String, Layout> layouts = new ConcurrentHashMap<>();
+
+    // 已就绪的布隆过滤器key
+    private final Set<String> ready = ConcurrentHashMap.newKeySet();
+
+    // 未就绪的key -> 下次检查的时间
+    private final Map<String, Long> nextReadyCheck = new ConcurrentHashMap<>();
+
+    // 重建时并行计算哈希、并发写入各批次
+    private final ForkJoinPool rebuildPool;
+
+    // 重建时同时写入的批次数上限
+    private final int rebuildParallelism;
+
+    /**
+     * @param expectedInsertions 预计元素数量
+     * @param fpp 期望误判率
+     * @param localReplica 是否开启本地副本
+     * @param counting 是否开启计数模式
+     * @param rebuildParallelism 重建时的并行度
+     */
+    public BloomFilterUtil(@Value("${hmdp.bloom.expected-insertions:1000000}") long expectedInsertions,
+                           @Value("${hmdp.bloom.fpp:0.01}") double fpp,
+                           @Value("${hmdp.bloom.local-replica.enabled:false}") boolean localReplica,
+                           @Value("${hmdp.bloom.counting.enabled:false}") boolean counting,
+                           @Value("${hmdp.bloom.rebuild.parallelism:4}") int rebuildParallelism) {
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.defaultLayout = Layout.of(expectedInsertions, fpp, counting);
+        this.localReplica = localReplica;
+        this.counting = counting;
+        this.rebuildParallelism = rebuildParallelism;
+        this.rebuildPool = new ForkJoinPool(rebuildParallelism);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebuildPool.shutdownNow();
+    }
+
+    /**
+     * 布隆过滤器是否已就绪：本节点完成过重建或加载，或redis中已有某一代的布局（可能由其他节点完成重建）
+     * 只看 key:meta 中的代标识，不看位数组是否存在；未就绪时最多每秒检查一次redis
+     */
+    public boolean isReady(String key) {
+        if (ready.contains(key)) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        Long next = nextReadyCheck.get(key);
+        if (next != null && now < next) {
+            return false;
+        }
+        nextReadyCheck.put(key, now + READY_CHECK_INTERVAL_MILLIS);
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForHash().hasKey(metaKey(key), GENERATION_FIELD))) {
+            markReady(key);
+            return true;
+        }
+        return false;
+    }
+
+    private void markReady(String key) {
+        ready.add(key);
+        nextReadyCheck.remove(key);
+    }
+
+    /**
+     * 位数组大小和哈希函数个数，以及所属的代
+     */
+    private static class Layout {
+        final long bitSize;
+        final int hashCount;
+        // 代标识，没有meta记录时为null
+        final String generation;
+
+        Layout(long bitSize, int hashCount, String generation) {
+            this.bitSize = bitSize;
+            this.hashCount = hashCount;
+            this.generation = generation;
+        }
+
+        static Layout of(long n, double p, boolean counting) {
+            // 计数模式下计数器的偏移量同样不能超过 2^32 - 1
+            long max = counting ? MAX_BIT_SIZE / COUNTER_BITS : MAX_BIT_SIZE;
+            long m = Math.min(optimalBitSize(n, p), max);
+            return new Layout(m, optimalHashCount(n, m), null);
+        }
+
+        Layout withGeneration(String generation) {
+            return new Layout(bitSize, hashCount, generation);
+        }
+
+        /**
+         * 是否与redis中的代标识一致
+         */
+        boolean isGeneration(Object generation) {
+            return Objects.equals(this.generation, generation);
+        }
+    }
+
+    /**
+     * 最优位数：m = -n * ln(p) / (ln2)^2
+     */
+    static long optimalBitSize(long n, double p) {
+        long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        return Math.max(64, Math.min(m, MAX_BIT_SIZE));
+    }
+
+    /**
+     * 最优哈希函数个数：k = m / n * ln2
+     */
+    static int optimalHashCount(long n, long m) {
+        return Math.max(1, (int) Math.round((double) m / Math.max(n, 1) * Math.log(2)));
+    }
+
+    /**
+     * 默认布局的位数组大小
+     */
+    public long getBitSize() {
+        return defaultLayout.bitSize;
+    }
+
+    /**
+     * 默认布局的哈希函数个数
+     */
+    public int getHashCount() {
+        return defaultLayout.hashCount;
+    }
+
+    /**
+     * 实体名：类名首字母小写，如 Shop -> shop
+     */
+    public static String entityName(Class<?> entity) {
+        return StrUtil.lowerFirst(entity.getSimpleName());
+    }
+
+    /**
+     * 实体对应的布隆过滤器key，如 Shop -> bloom:shop
+     */
+    public static String keyOf(Class<?> entity) {
+        return BLOOM_FILTER_KEY_PREFIX + entityName(entity);
+    }
+
+    /**
+     * 布隆过滤器的布局，优先使用 key:meta 中记录的布局
+     */
+    private Layout layoutOf(String key) {
+        return layouts.computeIfAbsent(key, this::loadLayout);
+    }
+
+    private Layout loadLayout(String key) {
+        List<Object> meta = stringRedisTemplate.opsForHash().multiGet(metaKey(key),
+                Arrays.<Object>asList("bits", "hashes", GENERATION_FIELD));
+        if (meta.get(0) == null || meta.get(1) == null) {
+            return defaultLayout;
+        }
+        return new Layout(Long.parseLong((String) meta.get(0)), Integer.parseInt((String) meta.get(1)),
+                (String) meta.get(2));
+    }
+
+    /**
+     * 在管道中按缓存的布局执行命令，命令前后各读取一次代标识
+     * 两次都与布局一致，说明命令执行期间位数组没有被替换；否则重新读取布局后重试
+     * @param commands 按布局写入管道的命令
+     * @return 命令的结果，不包含代标识
+     */
+    private List<Object> executeWithLayout(String key, BiConsumer<RedisOperations<String, String>, Layout> commands) {
+        for (int attempt = 1; ; attempt++) {
+            Layout layout = layoutOf(key);
+            List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    ops.opsForHash().get(metaKey(key), GENERATION_FIELD);
+                    commands.accept(ops, layout);
+                    ops.opsForHash().get(metaKey(key), GENERATION_FIELD);
+                    return null;
+                }
+            });
+            boolean consistent = layout.isGeneration(results.get(0))
+                    && layout.isGeneration(results.get(results.size() - 1));
+            if (consistent || attempt >= LAYOUT_ATTEMPTS) {
+                return results.subList(1, results.size() - 1);
+            }
+            // 其他节点已替换为新一代，本地缓存的布局已过期
+            layouts.remove(key);
+        }
+    }
 
     /**
      * 将元素添加到布隆过滤器
@@ -31,81 +318,458 @@ public class BloomFilterUtil {
      * @param value 要添加的值
      */
     public void add(String key, String value) {
-        long[] hashValues = getHashValues(value);
-        for (long hashValue : hashValues) {
-            long bitIndex = hashValue % BIT_ARRAY_SIZE;
-            stringRedisTemplate.opsForValue().setBit(key, bitIndex, true);
-        }
+        addBatch(key, Collections.singletonList(value));
     }
 
     /**
      * 批量添加元素到布隆过滤器
+     * 按批次使用管道写入，每个元素一条BITFIELD命令；正在重建时同时写入新一代
      * @param key Redis键
      * @param values 要添加的值列表
      */
     public void addBatch(String key, List<String> values) {
+        String building = stringRedisTemplate.opsForValue().get(buildingKey(key));
+        addBatch(key, values, true);
+        if (building != null) {
+            // 重建期间的新增同时写入新一代，避免替换后丢失
+            addBatch(building, values, false);
+        }
+    }
+
+    /**
+     * 从布隆过滤器中删除元素，只有开启计数模式时支持
+     * 只能删除确实添加过的元素，否则会影响其他元素
+     * @param key Redis键
+     * @param value 要删除的值
+     */
+    public void remove(String key, String value) {
+        if (!counting) {
+            throw new UnsupportedOperationException("未开启计数模式，布隆过滤器不支持删除");
+        }
+        String building = stringRedisTemplate.opsForValue().get(buildingKey(key));
+        removeFrom(key, value);
+        if (building != null) {
+            removeFrom(building, value);
+        }
+        // 本地副本没有计数器，删除后全量同步
+        publishReload(key);
+    }
+
+    private void removeFrom(String key, String value) {
+        for (int attempt = 1; attempt <= LAYOUT_ATTEMPTS; attempt++) {
+            Layout layout = layoutOf(key);
+            long[] indexes = getBitIndexes(layout, value);
+            // 第一个参数为代标识，脚本中与meta核对，不一致时不做修改
+            String[] args = new String[indexes.length + 1];
+            args[0] = StrUtil.nullToEmpty(layout.generation);
+            for (int i = 0; i < indexes.length; i++) {
+                args[i + 1] = String.valueOf(indexes[i]);
+            }
+            Long removed = stringRedisTemplate.execute(REMOVE_SCRIPT,
+                    Arrays.asList(key, countsKey(key), metaKey(key)), (Object[]) args);
+            if (removed != null && removed == 1) {
+                return;
+            }
+            // 已被替换为新一代，重新读取布局
+            layouts.remove(key);
+        }
+        log.warn("布隆过滤器删除失败，布局不一致：{}", key);
+    }
+
+    /**
+     * 按代重建布隆过滤器
+     * 1.按当前元素数量计算新一代的布局，写入临时key，并设置重建标记，此后的新增同时写入两代
+     * 2.由scanner流式读取全部元素，每批提交到ForkJoinPool并行计算哈希、通过管道写入新一代，
+     *   读取下一批与写入上一批同时进行，同时写入的批次数不超过并行度
+     * 3.一个事务内把新一代的位数组、布局、计数器RENAME为正式key，删除重建标记，再通知各节点全量同步
+     * 调用方需要保证同一时刻只有一个节点在重建
+     * @param key Redis键
+     * @param currentCount 当前元素数量，新一代按其两倍预留空间，不小于配置的预计数量
+     * @param scanner 流式读取全部元素，每读取一批交给参数中的consumer
+     */
+    public void rebuild(String key, long currentCount, Consumer<Consumer<List<String>>> scanner) {
+        String tmpKey = key + ":tmp";
+        Layout layout = Layout.of(Math.max(expectedInsertions, currentCount * 2), fpp, counting)
+                .withGeneration(UUID.randomUUID().toString());
+        // 1.准备新一代：预先分配位数组（保证key存在，RENAME不会失败），写入布局，设置重建标记
+        stringRedisTemplate.delete(Arrays.asList(tmpKey, metaKey(tmpKey), countsKey(tmpKey)));
+        stringRedisTemplate.opsForValue().setBit(tmpKey, layout.bitSize - 1, false);
+        if (counting) {
+            stringRedisTemplate.opsForValue().setBit(countsKey(tmpKey), layout.bitSize * COUNTER_BITS - 1, false);
+        }
+        Map<String, String> meta = new HashMap<>();
+        meta.put("bits", String.valueOf(layout.bitSize));
+        meta.put("hashes", String.valueOf(layout.hashCount));
+        meta.put(GENERATION_FIELD, layout.generation);
+        stringRedisTemplate.opsForHash().putAll(metaKey(tmpKey), meta);
+        layouts.put(tmpKey, layout);
+        stringRedisTemplate.opsForValue().set(buildingKey(key), tmpKey, BUILDING_TTL_MINUTES, TimeUnit.MINUTES);
+        // 2.流式写入全部元素
+        Semaphore permits = new Semaphore(rebuildParallelism);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        try {
+            scanner.accept(values -> {
+                permits.acquireUninterruptibly();
+                tasks.add(rebuildPool.submit(() -> {
+                    try {
+                        addBatch(tmpKey, values, false);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            });
+            tasks.forEach(ForkJoinTask::join);
+            // 3.原子替换
+            stringRedisTemplate.execute(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    ops.multi();
+                    ops.rename(tmpKey, key);
+                    ops.rename(metaKey(tmpKey), metaKey(key));
+                    if (counting) {
+                        ops.rename(countsKey(tmpKey), countsKey(key));
+                    }
+                    ops.delete(buildingKey(key));
+                    return ops.exec();
+                }
+            });
+        } catch (RuntimeException e) {
+            // 读取或任何一批写入失败都放弃本次重建，旧一代继续使用：
+            // 等待已提交的批次结束（避免清理后又写入临时key），再删除重建标记和新一代，新增不再双写
+            tasks.forEach(ForkJoinTask::quietlyJoin);
+            stringRedisTemplate.delete(Arrays.asList(buildingKey(key), tmpKey, metaKey(tmpKey), countsKey(tmpKey)));
+            layouts.remove(tmpKey);
+            throw e;
+        }
+        layouts.remove(tmpKey);
+        layouts.put(key, layout);
+        markReady(key);
+        log.info("布隆过滤器已替换为新一代：{}，位数组 {} 位，哈希函数 {} 个", key, layout.bitSize, layout.hashCount);
+        publishReload(key);
+    }
+
+    /**
+     * @param sync 是否递增版本号并广播增量
+     */
+    private void addBatch(String key, List<String> values, boolean sync) {
+        boolean broadcast = sync && localReplica;
+        for (int from = 0; from < values.size(); from += BATCH_CHUNK_SIZE) {
+            List<String> chunk = values.subList(from, Math.min(from + BATCH_CHUNK_SIZE, values.size()));
+            BiConsumer<RedisOperations<String, String>, Layout> commands = (ops, layout) -> {
+                for (long[] indexes : hashAll(layout, chunk)) {
+                    ops.opsForValue().bitField(key, setCommands(indexes));
+                    if (counting) {
+                        ops.opsForValue().bitField(countsKey(key), incrCommands(indexes));
+                    }
+                }
+                if (broadcast) {
+                    // 每批增量递增一次版本号
+                    ops.opsForValue().increment(versionKey(key));
+                }
+            };
+            // 写入正式key时核对代标识；重建中的新一代在替换前布局不会变化，无需核对
+            List<Object> results = sync ? executeWithLayout(key, commands) : executePipelined(key, commands);
+            if (broadcast) {
+                long version = (Long) results.get(results.size() - 1);
+                applyDelta(key, chunk, version);
+                // 通知其他节点同步增量
+                JSONObject message = new JSONObject();
+                message.set("key", key);
+                message.set("version", version);
+                message.set("values", chunk);
+                stringRedisTemplate.convertAndSend(BLOOM_FILTER_CHANNEL, message.toString());
+            }
+        }
+    }
+
+    private List<Object> executePipelined(String key, BiConsumer<RedisOperations<String, String>, Layout> commands) {
+        Layout layout = layoutOf(key);
+        return stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                commands.accept((RedisOperations<String, String>) operations, layout);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 计算一批元素的位置，元素较多时并行计算
+     * 在重建用的ForkJoinPool中调用时，并行流也在该线程池中执行
+     */
+    private static List<long[]> hashAll(Layout layout, List<String> values) {
+        if (values.size() < PARALLEL_HASH_THRESHOLD) {
+            List<long[]> indexes = new ArrayList<>(values.size());
+            for (String value : values) {
+                indexes.add(getBitIndexes(layout, value));
+            }
+            return indexes;
+        }
+        return values.parallelStream()
+                .map(value -> getBitIndexes(layout, value))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 位数组被整体替换后调用，递增版本号并通知所有节点重新读取布局、全量同步本地副本
+     */
+    public void publishReload(String key) {
+        Long version = stringRedisTemplate.opsForValue().increment(versionKey(key));
+        JSONObject message = new JSONObject();
+        message.set("key", key);
+        message.set("version", version);
+        stringRedisTemplate.convertAndSend(BLOOM_FILTER_CHANNEL, message.toString());
+        forgetLayouts(key);
+        loadReplica(key);
+    }
+
+    /**
+     * 从redis全量加载本地副本：先读版本号，再一次GET读取整个位数组
+     * 位数组前后各读取一次布局，代标识一致时才使用，保证位数组与布局属于同一代
+     * 之后的增量通过发布订阅同步
+     */
+    public void loadReplica(String key) {
+        if (!localReplica) {
+            return;
+        }
+        long version = currentVersion(key);
+        for (int attempt = 1; attempt <= LAYOUT_ATTEMPTS; attempt++) {
+            Layout layout = loadLayout(key);
+            byte[] bitmap = byteRedisTemplate.opsForValue().get(key);
+            if (bitmap == null || layout.generation == null) {
+                // 还没有完成重建（没有meta的位数组不使用），重建完成后会收到通知
+                return;
+            }
+            if (bitmap.length < (layout.bitSize + 7) >>> 3 || !layout.isGeneration(loadLayout(key).generation)) {
+                // 读取期间被替换为新一代
+                continue;
+            }
+            layouts.put(key, layout);
+            markReady(key);
+            replicas.put(key, new LocalBloomReplica(layout.bitSize, bitmap, version));
+            log.info("布隆过滤器本地副本已加载：{}，版本 {}", key, version);
+            return;
+        }
+        log.warn("布隆过滤器本地副本加载失败，布局不一致：{}", key);
+    }
+
+    /**
+     * 与当前布局一致的本地副本
+     * 布局已被重新读取（发现了新一代）而副本还是旧一代时重新加载，仍不一致时返回null，改为查询redis
+     */
+    private LocalBloomReplica replicaOf(String key) {
+        LocalBloomReplica replica = replicas.get(key);
+        if (replica == null || replica.getBitSize() == layoutOf(key).bitSize) {
+            return replica;
+        }
+        loadReplica(key);
+        replica = replicas.get(key);
+        return replica != null && replica.getBitSize() == layoutOf(key).bitSize ? replica : null;
+    }
+
+    /**
+     * 收到其他节点的同步消息
+     */
+    public void onMessage(String body) {
+        JSONObject message = JSONUtil.parseObj(body);
+        String key = message.getStr("key");
+        if (!message.containsKey("values")) {
+            // 位数组被整体替换，重新读取布局
+            forgetLayouts(key);
+            if (replicas.containsKey(key)) {
+                loadReplica(key);
+            }
+            return;
+        }
+        if (replicas.containsKey(key)) {
+            applyDelta(key, message.getJSONArray("values").toList(String.class), message.getLong("version"));
+        }
+    }
+
+    /**
+     * 定期对比版本号，增量有缺失时全量同步；同时刷新布局，兜底丢失的替换消息
+     */
+    @Scheduled(fixedDelayString = "${hmdp.bloom.local-replica.resync-millis:60000}")
+    public void resyncReplicas() {
+        layouts.replaceAll((key, layout) -> loadLayout(key));
+        replicas.forEach((key, replica) -> {
+            if (currentVersion(key) > replica.getVersion()
+                    || replica.getBitSize() != layoutOf(key).bitSize) {
+                loadReplica(key);
+            }
+        });
+    }
+
+    private void applyDelta(String key, List<String> values, long version) {
+        LocalBloomReplica replica = replicas.get(key);
+        if (replica == null) {
+            return;
+        }
+        Layout layout = layoutOf(key);
+        if (replica.getBitSize() != layout.bitSize) {
+            // 副本与布局不属于同一代，等待全量同步
+            return;
+        }
         for (String value : values) {
-            add(key, value);
+            replica.set(getBitIndexes(layout, value));
         }
+        replica.advance(version);
+    }
+
+    /**
+     * 清除本代和临时一代的布局缓存
+     */
+    private void forgetLayouts(String key) {
+        layouts.keySet().removeIf(k -> k.startsWith(key));
+    }
+
+    private long currentVersion(String key) {
+        String version = stringRedisTemplate.opsForValue().get(versionKey(key));
+        return StrUtil.isBlank(version) ? 0L : Long.parseLong(version);
+    }
+
+    private static String versionKey(String key) {
+        return key + ":version";
+    }
+
+    private static String metaKey(String key) {
+        return key + ":meta";
+    }
+
+    private static String countsKey(String key) {
+        return key + ":counts";
+    }
+
+    private static String buildingKey(String key) {
+        return key + ":building";
     }
 
     /**
      * 判断元素是否可能在布隆过滤器中
      * @param key Redis键
      * @param value 要查询的值
-     * @return true: 可能存在（可能是误判）; false: 一定不存在
+     * @return true: 可能存在（可能是误判，或布隆过滤器未就绪）; false: 一定不存在
      */
     public boolean mightContain(String key, String value) {
-        long[] hashValues = getHashValues(value);
-        for (long hashValue : hashValues) {
-            long bitIndex = hashValue % BIT_ARRAY_SIZE;
-            Boolean bit = stringRedisTemplate.opsForValue().getBit(key, bitIndex);
-            // 如果任何一个位为false，则一定不存在
-            if (bit == null || !bit) {
-                return false;
-            }
+        // 未就绪时放行
+        if (!isReady(key)) {
+            return true;
         }
-        // 所有位都为true，可能存在（也可能是误判）
-        return true;
+        // 有本地副本时直接查询内存
+        LocalBloomReplica replica = replicaOf(key);
+        if (replica != null) {
+            return replica.mightContain(getBitIndexes(layoutOf(key), value));
+        }
+        // 一条BITFIELD命令读取所有位，同一管道中核对代标识
+        List<Object> results = executeWithLayout(key,
+                (ops, layout) -> ops.opsForValue().bitField(key, getCommands(getBitIndexes(layout, value))));
+        @SuppressWarnings("unchecked")
+        List<Long> bits = (List<Long>) results.get(0);
+        return allSet(bits);
     }
 
     /**
-     * 计算元素的多个哈希值
-     * 使用MD5、SHA1等不同的哈希算法来模拟多个哈希函数
+     * 批量判断元素是否可能在布隆过滤器中，一次管道完成
+     * @param key Redis键
+     * @param values 要查询的值
+     * @return 值 -> 是否可能存在，按传入顺序
      */
-    private long[] getHashValues(String value) {
-        long[] hashValues = new long[HASH_COUNT];
-        
-        try {
-            // 使用不同的哈希算法生成多个哈希值
-            hashValues[0] = hashWithAlgorithm(value, "MD5");
-            hashValues[1] = hashWithAlgorithm(value, "SHA-1");
-            hashValues[2] = hashWithAlgorithm(value, "SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("哈希算法不存在", e);
+    public Map<String, Boolean> mightContainAll(String key, Collection<String> values) {
+        if (!isReady(key)) {
+            Map<String, Boolean> contains = new LinkedHashMap<>(values.size() * 2);
+            values.forEach(value -> contains.put(value, true));
+            return contains;
         }
-        
-        return hashValues;
+        LocalBloomReplica replica = replicaOf(key);
+        if (replica != null) {
+            Layout layout = layoutOf(key);
+            Map<String, Boolean> contains = new LinkedHashMap<>(values.size() * 2);
+            for (String value : values) {
+                contains.put(value, replica.mightContain(getBitIndexes(layout, value)));
+            }
+            return contains;
+        }
+        List<String> list = new ArrayList<>(values);
+        List<Object> results = executeWithLayout(key, (ops, layout) -> {
+            for (String value : list) {
+                ops.opsForValue().bitField(key, getCommands(getBitIndexes(layout, value)));
+            }
+        });
+        Map<String, Boolean> contains = new LinkedHashMap<>(list.size() * 2);
+        for (int i = 0; i < list.size(); i++) {
+            @SuppressWarnings("unchecked")
+            List<Long> bits = (List<Long>) results.get(i);
+            contains.put(list.get(i), allSet(bits));
+        }
+        return contains;
     }
 
     /**
-     * 使用指定算法计算哈希值
+     * 如果任何一个位为0，则一定不存在；所有位都为1，可能存在（也可能是误判）
      */
-    private long hashWithAlgorithm(String value, String algorithm) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance(algorithm);
-        byte[] hashBytes = digest.digest(value.getBytes(StandardCharsets.UTF_8));
-        
-        // 将字节数组转换为long值
-        long hash = 0;
-        for (int i = 0; i < Math.min(8, hashBytes.length); i++) {
-            hash = (hash << 8) | (hashBytes[i] & 0xFF);
+    private static boolean allSet(List<Long> bits) {
+        if (bits == null || bits.isEmpty()) {
+            return false;
+        }
+        for (Long bit : bits) {
+            if (bit == null || bit == 0) {
+                return false;
+            }
         }
-        
-        return Math.abs(hash);
+        return true;
     }
-}
 
+    private static BitFieldSubCommands getCommands(long[] indexes) {
+        BitFieldSubCommands commands = BitFieldSubCommands.create();
+        for (long bitIndex : indexes) {
+            commands = commands.get(BIT).valueAt(bitIndex);
+        }
+        return commands;
+    }
 
+    private static BitFieldSubCommands setCommands(long[] indexes) {
+        BitFieldSubCommands commands = BitFieldSubCommands.create();
+        for (long bitIndex : indexes) {
+            commands = commands.set(BIT).valueAt(bitIndex).to(1);
+        }
+        return commands;
+    }
 
+    /**
+     * 计数器加1，达到上限后保持不变
+     */
+    private static BitFieldSubCommands incrCommands(long[] indexes) {
+        BitFieldSubCommands commands = BitFieldSubCommands.create();
+        for (long bitIndex : indexes) {
+            commands = commands.incr(COUNTER).valueAt(Offset.offset(bitIndex).multipliedByTypeLength())
+                    .overflow(BitFieldIncrBy.Overflow.SAT).by(1);
+        }
+        return commands;
+    }
 
+    /**
+     * 按默认布局计算元素在位数组中的所有位置
+     */
+    public long[] getBitIndexes(String value) {
+        return getBitIndexes(defaultLayout, value);
+    }
 
+    /**
+     * 计算元素在位数组中的所有位置
+     * Murmur3-128的两个64位结果作为h1、h2，第i个位置为 (h1 + i * h2) mod m
+     */
+    private static long[] getBitIndexes(Layout layout, String value) {
+        long[] hash = MurmurHash.hash128(value.getBytes(StandardCharsets.UTF_8));
+        long combined = hash[0];
+        long[] indexes = new long[layout.hashCount];
+        for (int i = 0; i < layout.hashCount; i++) {
+            // 去掉符号位，保证非负
+            indexes[i] = (combined & Long.MAX_VALUE) % layout.bitSize;
+            combined += hash[1];
+        }
+        return indexes;
+    }
+}
@@ -1,19 +1,38 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.util.ReflectUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.stereotype.Component;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
 
@@ -21,78 +40,614 @@ import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
 @Slf4j
 public class CacheClient {
     private final StringRedisTemplate stringRedisTemplate;
-    
-    // 线程池，用于异步重建缓存
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    // 缓存值按字节读写，兼容JSON和二进制两种格式
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    // 写入使用的编解码器，读取时按魔数自动识别格式，便于灰度切换
+    private final CacheCodec codec;
+    private final CacheCodec jsonCodec = new JsonCacheCodec();
+    private final CacheCodec binaryCodec = new BinaryCacheCodec();
+
+    // 空值标记
+    private static final byte[] NULL_VALUE = new byte[0];
+
+    // hash结构的存在标记字段：1表示存在，0表示空值
+    private static final String HASH_MARKER_FIELD = "_";
+    private static final byte[] HASH_EXIST_MARKER = {'1'};
+    private static final byte[] HASH_NULL_MARKER = {'0'};
+
+    // 投影类型 -> 需要读取的字段
+    private static final Map<Class<?>, String[]> PROJECTION_FIELDS = new ConcurrentHashMap<>();
+
+    // 进程内一级缓存
+    private final LocalCache localCache;
+
+    // 不存在id的负缓存
+    private final NegativeCache negativeCache;
+
+    // 过期策略，TTL抖动
+    private final ExpiryPolicy expiryPolicy;
+
+    // 热点key探测
+    private final HotKeyDetector hotKeyDetector;
+
+    // 共用的缓存重建线程池
+    private final CacheRebuildExecutor rebuildExecutor;
+
+    // 请求合并，同一节点内同一key的缓存重建只执行一次
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    // 跨节点等待互斥锁的重试间隔（毫秒）和最大次数
+    private static final long MUTEX_RETRY_INTERVAL = 50;
+    private static final int MUTEX_MAX_RETRIES = 20;
+
+    // 按key前缀统计的缓存指标
+    private final CacheMetrics metrics;
+
+    // 提前刷新的激进程度，越大越早刷新
+    private final double refreshBeta;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       RedisTemplate<String, byte[]> byteRedisTemplate,
+                       LocalCache localCache,
+                       NegativeCache negativeCache,
+                       ExpiryPolicy expiryPolicy,
+                       HotKeyDetector hotKeyDetector,
+                       CacheMetrics metrics,
+                       CacheRebuildExecutor rebuildExecutor,
+                       @Value("${hmdp.cache.codec:json}") String codecName,
+                       @Value("${hmdp.cache.refresh-ahead.beta:1.0}") double refreshBeta) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.byteRedisTemplate = byteRedisTemplate;
+        this.localCache = localCache;
+        this.negativeCache = negativeCache;
+        this.expiryPolicy = expiryPolicy;
+        this.hotKeyDetector = hotKeyDetector;
+        this.metrics = metrics;
+        this.rebuildExecutor = rebuildExecutor;
+        this.codec = "binary".equalsIgnoreCase(codecName) ? binaryCodec : jsonCodec;
+        this.refreshBeta = refreshBeta;
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        // TTL加入随机抖动，避免大量key同时过期
+        byteRedisTemplate.opsForValue().set(key, codec.encode(value, null, null),
+                expiryPolicy.ttlMillis(key, time, unit), TimeUnit.MILLISECONDS);
     }
 
     public void setWithLogicExpire(String key, Object value, Long time, TimeUnit unit) {
-        // 封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        // 将时间转换为秒数
-        long expireSeconds = unit.toSeconds(time);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        // 写入redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setWithLogicExpire(key, value, time, unit, null);
+    }
+
+    /**
+     * 写入逻辑过期缓存，同时记录本次重建耗时
+     * @param rebuildCost 重建耗时（毫秒），用于提前刷新的概率计算
+     */
+    public void setWithLogicExpire(String key, Object value, Long time, TimeUnit unit, Long rebuildCost) {
+        // 封装逻辑过期时间并写入redis
+        byteRedisTemplate.opsForValue().set(key,
+                codec.encode(value, expiryPolicy.expireTime(key, time, unit), rebuildCost));
+    }
+
+    /**
+     * 批量写入缓存：并行编码，一次管道写入，TTL按key分别加入随机抖动
+     * @param values key -> 缓存对象
+     */
+    public <T> void setBatch(Map<String, T> values, Long time, TimeUnit unit) {
+        Map<String, byte[]> entries = values.entrySet().parallelStream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> codec.encode(e.getValue(), null, null)));
+        pipelineSet(entries, (key, bytes) -> expiryPolicy.ttlMillis(key, time, unit));
+    }
+
+    /**
+     * 批量写入逻辑过期缓存：并行编码，一次管道写入
+     * @param values key -> 缓存对象
+     */
+    public <T> void setBatchWithLogicExpire(Map<String, T> values, Long time, TimeUnit unit) {
+        // 每个key单独计算抖动后的逻辑过期时间
+        Map<String, byte[]> entries = values.entrySet().parallelStream()
+                .collect(Collectors.toMap(Map.Entry::getKey,
+                        e -> codec.encode(e.getValue(), expiryPolicy.expireTime(e.getKey(), time, unit), null)));
+        pipelineSet(entries, (key, bytes) -> 0L);
+    }
+
+    /**
+     * 通过管道批量写入
+     * @param entries key -> 编码后的值
+     * @param timeoutMillis 根据key和值计算过期时间（毫秒），不大于0表示永不过期
+     */
+    private void pipelineSet(Map<String, byte[]> entries, ToLongBiFunction<String, byte[]> timeoutMillis) {
+        byteRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                ValueOperations<String, byte[]> ops =
+                        ((RedisOperations<String, byte[]>) operations).opsForValue();
+                entries.forEach((key, bytes) -> {
+                    long timeout = timeoutMillis.applyAsLong(key, bytes);
+                    if (timeout > 0) {
+                        ops.set(key, bytes, timeout, TimeUnit.MILLISECONDS);
+                    } else {
+                        ops.set(key, bytes);
+                    }
+                });
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 写入本地缓存，热点key额外保存一份短TTL副本
+     */
+    private void cacheLocally(String key, Object value) {
+        localCache.put(key, value);
+        if (hotKeyDetector.isHot(key)) {
+            hotKeyDetector.putReplica(key, value);
+        }
+    }
+
+    /**
+     * 记录不存在的id，开启负缓存时写入时间片set，否则写入空值
+     */
+    private void setNull(String keyPrefix, Object id) {
+        if (negativeCache.isEnabled()) {
+            negativeCache.add(keyPrefix, id);
+            return;
+        }
+        String key = keyPrefix + id;
+        byteRedisTemplate.opsForValue().set(key, NULL_VALUE,
+                expiryPolicy.ttlMillis(key, CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 查询缓存值，开启负缓存时和负缓存的查询放在同一个管道中，只有一次网络往返
+     * @return 缓存值；已知不存在时返回空值标记；未命中返回null
+     */
+    private byte[] getValue(String keyPrefix, Object id) {
+        return multiGetValues(keyPrefix, Collections.singletonList(id)).get(0);
+    }
+
+    /**
+     * 批量查询缓存值，语义同 {@link #getValue}
+     */
+    private List<byte[]> multiGetValues(String keyPrefix, List<?> ids) {
+        List<String> keys = ids.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        if (!negativeCache.isEnabled()) {
+            List<byte[]> values = byteRedisTemplate.opsForValue().multiGet(keys);
+            return values != null ? values : new ArrayList<>(Collections.<byte[]>nCopies(keys.size(), null));
+        }
+        List<Object> results = byteRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, byte[]> ops = (RedisOperations<String, byte[]>) operations;
+                for (int i = 0; i < keys.size(); i++) {
+                    ops.opsForValue().get(keys.get(i));
+                    negativeCache.enqueueLookup(ops, keyPrefix, ids.get(i));
+                }
+                return null;
+            }
+        });
+        int step = 1 + NegativeCache.COMMANDS_PER_LOOKUP;
+        List<byte[]> values = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            values.add(negativeCache.isMissing(results, i * step + 1)
+                    ? NULL_VALUE : (byte[]) results.get(i * step));
+        }
+        return values;
+    }
+
+    /**
+     * 解码缓存值，根据魔数识别二进制或JSON格式
+     */
+    private CacheEntry decode(byte[] bytes, boolean logicExpire) {
+        return binaryCodec.supports(bytes)
+                ? binaryCodec.decode(bytes, logicExpire)
+                : jsonCodec.decode(bytes, logicExpire);
+    }
+
+    /**
+     * 删除缓存和负缓存中的记录，并通过Redis发布订阅通知所有节点清除本地缓存，一次管道完成
+     * @param key 缓存key
+     */
+    public void delete(String key) {
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                ops.delete(key);
+                negativeCache.enqueueRemove(ops, key);
+                ops.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+                return null;
+            }
+        });
+        localCache.remove(key);
+    }
+
+    /**
+     * 各级缓存的命中统计
+     */
+    public Map<String, Object> getTierStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long localHits = localCache.getHits();
+        long localMisses = localCache.getMisses();
+        long hits = metrics.total(CacheMetrics.HIT);
+        long nullHits = metrics.total(CacheMetrics.NULL_HIT);
+        long misses = metrics.total(CacheMetrics.MISS);
+        stats.put("localSize", localCache.size());
+        stats.put("localHits", localHits);
+        stats.put("localMisses", localMisses);
+        stats.put("localHitRatio", ratio(localHits, localHits + localMisses));
+        stats.put("redisHits", hits);
+        stats.put("redisNullHits", nullHits);
+        stats.put("redisMisses", misses);
+        stats.put("redisHitRatio", ratio(hits + nullHits, hits + nullHits + misses));
+        return stats;
+    }
+
+    private static double ratio(long part, long total) {
+        return total == 0 ? 0D : (double) part / total;
+    }
+
+    /**
+     * 查询数据库，并记录耗时
+     */
+    private <R, ID> R loadFromDb(String keyPrefix, ID id, Function<ID, R> dbFallback) {
+        long begin = System.nanoTime();
+        try {
+            return dbFallback.apply(id);
+        } finally {
+            metrics.recordDbFallback(keyPrefix, System.nanoTime() - begin);
+        }
     }
 
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
             Long time, TimeUnit unit){
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+        // 0.记录访问用于热点探测，再查本地缓存
+        hotKeyDetector.record(key);
+        R local = localCache.get(key, type);
+        if (local != null) {
+            metrics.localHit(keyPrefix);
+            return local;
         }
-        // 判断命中的是否是空值
-        if (json != null) {
-            // 返回一个错误信息
-            return null;
+        // 1.从redis查询商铺缓存（同时查询负缓存）
+        byte[] bytes = getValue(keyPrefix, id);
+        // 2.判断是否存在
+        if (bytes != null) {
+            // 判断命中的是否是空值
+            if (bytes.length == 0) {
+                // 返回一个错误信息
+                metrics.nullHit(keyPrefix);
+                return null;
+            }
+            // 3.存在，写入本地缓存后返回（结构不兼容时按未命中处理）
+            R r = decode(bytes, false).getData(type);
+            if (r != null) {
+                metrics.hit(keyPrefix);
+                cacheLocally(key, r);
+                return r;
+            }
         }
+        metrics.miss(keyPrefix);
         // 4.不存在，根据id查询数据库
-        R r = dbFallback.apply(id);
+        R r = loadFromDb(keyPrefix, id, dbFallback);
         // 5.不存在，返回错误
         if (r == null) {
-            // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL,
-                    TimeUnit.MINUTES);
+            // 记录不存在的id
+            setNull(keyPrefix, id);
             // 返回错误信息
             return null;
         }
         // 6.存在，写入redis
         this.set(key, r, time, unit);
+        cacheLocally(key, r);
         return r;
     }
 
+    /**
+     * 批量查询，解决缓存穿透
+     * 一次MGET查询缓存，未命中的id一次批量查询数据库，再用管道批量写回缓存
+     * 每批数据的网络往返次数固定，与数量无关
+     * @param keyPrefix key前缀
+     * @param ids id集合
+     * @param type 缓存类型
+     * @param dbFallback 根据未命中的id批量查询数据库，返回 id -> 数据
+     * @return id -> 数据，按传入顺序，不存在的id不包含在内
+     */
+    public <R, ID> Map<ID, R> queryBatchWithPassThrough(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<Collection<ID>, Map<ID, R>> dbFallback,
+            Long time, TimeUnit unit) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        // 1.先查本地缓存
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            hotKeyDetector.record(keyPrefix + id);
+            R local = localCache.get(keyPrefix + id, type);
+            if (local != null) {
+                metrics.localHit(keyPrefix);
+                result.put(id, local);
+            } else {
+                remoteIds.add(id);
+            }
+        }
+        if (remoteIds.isEmpty()) {
+            return result;
+        }
+        // 2.一次MGET（或管道）查询redis和负缓存
+        List<byte[]> values = multiGetValues(keyPrefix, remoteIds);
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            byte[] bytes = values.get(i);
+            if (bytes != null && bytes.length == 0) {
+                // 命中空值
+                metrics.nullHit(keyPrefix);
+                continue;
+            }
+            R r = bytes == null ? null : decode(bytes, false).getData(type);
+            if (r == null) {
+                metrics.miss(keyPrefix);
+                missIds.add(remoteIds.get(i));
+                continue;
+            }
+            metrics.hit(keyPrefix);
+            cacheLocally(keyPrefix + remoteIds.get(i), r);
+            result.put(remoteIds.get(i), r);
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        // 3.未命中的id一次查询数据库
+        long begin = System.nanoTime();
+        Map<ID, R> loaded = dbFallback.apply(missIds);
+        metrics.recordDbFallback(keyPrefix, System.nanoTime() - begin);
+        // 4.用管道批量写回缓存，不存在的id记入负缓存（未开启时写入空值）
+        Map<String, byte[]> toCache = new LinkedHashMap<>();
+        List<ID> notFound = new ArrayList<>();
+        for (ID id : missIds) {
+            R r = loaded == null ? null : loaded.get(id);
+            if (r == null) {
+                if (negativeCache.isEnabled()) {
+                    notFound.add(id);
+                } else {
+                    toCache.put(keyPrefix + id, NULL_VALUE);
+                }
+                continue;
+            }
+            toCache.put(keyPrefix + id, codec.encode(r, null, null));
+            cacheLocally(keyPrefix + id, r);
+        }
+        negativeCache.addAll(keyPrefix, notFound);
+        if (!toCache.isEmpty()) {
+            pipelineSet(toCache, (key, bytes) -> bytes.length == 0
+                    ? expiryPolicy.ttlMillis(key, CACHE_NULL_TTL, TimeUnit.MINUTES)
+                    : expiryPolicy.ttlMillis(key, time, unit));
+        }
+        // 5.按传入顺序返回
+        Map<ID, R> ordered = new LinkedHashMap<>();
+        for (ID id : ids) {
+            R r = result.containsKey(id) ? result.get(id) : (loaded == null ? null : loaded.get(id));
+            if (r != null) {
+                ordered.put(id, r);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * 以hash结构写入缓存，每个字段一个field，值为字段的字符串形式，null字段不写入
+     * 用于只需要部分字段的列表、卡片场景，读取时通过HMGET只取需要的字段
+     */
+    public void setAsHash(String key, Object value, Long time, TimeUnit unit) {
+        pipelineSetHash(Collections.singletonMap(key, value), time, unit);
+    }
+
+    /**
+     * 通过管道批量以hash结构写入缓存
+     * @param values key -> 缓存对象，值为null表示不存在，写入空值标记
+     */
+    private void pipelineSetHash(Map<String, ?> values, Long time, TimeUnit unit) {
+        byteRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, byte[]> ops = (RedisOperations<String, byte[]>) operations;
+                values.forEach((key, value) -> {
+                    // 先删除，避免残留已变为null的旧字段
+                    ops.delete(key);
+                    ops.opsForHash().putAll(key, toHash(value));
+                    long ttl = value == null
+                            ? expiryPolicy.ttlMillis(key, CACHE_NULL_TTL, TimeUnit.MINUTES)
+                            : expiryPolicy.ttlMillis(key, time, unit);
+                    ops.expire(key, ttl, TimeUnit.MILLISECONDS);
+                });
+                return null;
+            }
+        });
+    }
+
+    private static Map<String, byte[]> toHash(Object value) {
+        Map<String, byte[]> hash = new LinkedHashMap<>();
+        if (value == null) {
+            hash.put(HASH_MARKER_FIELD, HASH_NULL_MARKER);
+            return hash;
+        }
+        hash.put(HASH_MARKER_FIELD, HASH_EXIST_MARKER);
+        BeanUtil.beanToMap(value, false, true).forEach((field, v) ->
+                hash.put(field, v.toString().getBytes(StandardCharsets.UTF_8)));
+        return hash;
+    }
+
+    /**
+     * 投影类型需要读取的字段（不含静态字段）
+     */
+    private static String[] projectionFields(Class<?> projection) {
+        return PROJECTION_FIELDS.computeIfAbsent(projection, c -> Arrays.stream(ReflectUtil.getFields(c))
+                .filter(f -> !Modifier.isStatic(f.getModifiers()))
+                .map(Field::getName)
+                .toArray(String[]::new));
+    }
+
+    public <R, ID> R queryProjection(
+            String keyPrefix, ID id, Class<R> projection, Function<ID, ?> dbFallback,
+            Long time, TimeUnit unit) {
+        return queryBatchProjection(keyPrefix, Collections.singletonList(id), projection,
+                ids -> {
+                    Object r = dbFallback.apply(id);
+                    return r == null ? Collections.emptyMap() : Collections.singletonMap(id, r);
+                }, time, unit).get(id);
+    }
+
+    /**
+     * 批量查询hash结构的缓存，只读取投影类型中声明的字段
+     * 一次管道执行所有HMGET（开启负缓存时同时查询负缓存），未命中的id一次查询数据库，
+     * 完整实体以hash写回缓存后再转换为投影类型
+     * @param keyPrefix key前缀
+     * @param ids id集合
+     * @param projection 投影类型，字段名与实体一致
+     * @param dbFallback 根据未命中的id批量查询完整实体，返回 id -> 实体
+     * @return id -> 投影，按传入顺序，不存在的id不包含在内
+     */
+    public <R, ID> Map<ID, R> queryBatchProjection(
+            String keyPrefix, Collection<ID> ids, Class<R> projection,
+            Function<Collection<ID>, ? extends Map<ID, ?>> dbFallback,
+            Long time, TimeUnit unit) {
+        List<ID> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        if (distinctIds.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        // 第一个field是存在标记
+        String[] fields = projectionFields(projection);
+        List<String> hashFields = new ArrayList<>(fields.length + 1);
+        hashFields.add(HASH_MARKER_FIELD);
+        hashFields.addAll(Arrays.asList(fields));
+        boolean negative = negativeCache.isEnabled();
+        // 1.一次管道执行所有HMGET
+        List<Object> results = byteRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, byte[]> ops = (RedisOperations<String, byte[]>) operations;
+                for (ID id : distinctIds) {
+                    ops.<String, byte[]>opsForHash().multiGet(keyPrefix + id, hashFields);
+                    if (negative) {
+                        negativeCache.enqueueLookup(ops, keyPrefix, id);
+                    }
+                }
+                return null;
+            }
+        });
+        int step = negative ? 1 + NegativeCache.COMMANDS_PER_LOOKUP : 1;
+        Map<ID, R> result = new LinkedHashMap<>();
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < distinctIds.size(); i++) {
+            ID id = distinctIds.get(i);
+            @SuppressWarnings("unchecked")
+            List<byte[]> values = (List<byte[]>) results.get(i * step);
+            byte[] marker = values == null ? null : values.get(0);
+            // 2.判断是否命中空值
+            if ((negative && negativeCache.isMissing(results, i * step + 1))
+                    || Arrays.equals(marker, HASH_NULL_MARKER)) {
+                metrics.nullHit(keyPrefix);
+                continue;
+            }
+            if (marker == null) {
+                metrics.miss(keyPrefix);
+                missIds.add(id);
+                continue;
+            }
+            // 3.命中，只转换读取到的字段
+            Map<String, String> map = new LinkedHashMap<>(fields.length * 2);
+            for (int j = 0; j < fields.length; j++) {
+                byte[] v = values.get(j + 1);
+                if (v != null) {
+                    map.put(fields[j], new String(v, StandardCharsets.UTF_8));
+                }
+            }
+            metrics.hit(keyPrefix);
+            result.put(id, BeanUtil.toBean(map, projection));
+        }
+        if (!missIds.isEmpty()) {
+            // 4.未命中的id一次查询数据库
+            long begin = System.nanoTime();
+            Map<ID, ?> loaded = dbFallback.apply(missIds);
+            metrics.recordDbFallback(keyPrefix, System.nanoTime() - begin);
+            // 5.完整实体写回缓存，不存在的id记入负缓存（未开启时写入空值标记）
+            Map<String, Object> toCache = new LinkedHashMap<>();
+            List<ID> notFound = new ArrayList<>();
+            for (ID id : missIds) {
+                Object entity = loaded == null ? null : loaded.get(id);
+                if (entity == null) {
+                    if (negative) {
+                        notFound.add(id);
+                    } else {
+                        toCache.put(keyPrefix + id, null);
+                    }
+                    continue;
+                }
+                toCache.put(keyPrefix + id, entity);
+                result.put(id, BeanUtil.copyProperties(entity, projection));
+            }
+            negativeCache.addAll(keyPrefix, notFound);
+            if (!toCache.isEmpty()) {
+                pipelineSetHash(toCache, time, unit);
+            }
+        }
+        // 6.按传入顺序返回
+        Map<ID, R> ordered = new LinkedHashMap<>();
+        for (ID id : ids) {
+            R r = result.get(id);
+            if (r != null) {
+                ordered.put(id, r);
+            }
+        }
+        return ordered;
+    }
+
     public <R,ID> R queryWithLogicExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
             Long time, TimeUnit unit){
+        return queryWithLogicExpire(keyPrefix, id, type, dbFallback, time, unit, false);
+    }
+
+    /**
+     * 逻辑过期 + 提前刷新（XFetch）
+     * 每个读请求根据上次重建耗时按概率决定是否提前在后台重建，
+     * 使热点key的刷新分散在过期之前，而不是在过期瞬间集中抢锁
+     */
+    public <R,ID> R queryWithRefreshAhead(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+            Long time, TimeUnit unit){
+        return queryWithLogicExpire(keyPrefix, id, type, dbFallback, time, unit, true);
+    }
+
+    private <R,ID> R queryWithLogicExpire(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+            Long time, TimeUnit unit, boolean refreshAhead){
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // 1.从redis查询商铺缓存（同时查询负缓存）
+        byte[] bytes = getValue(keyPrefix, id);
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
+        if (bytes == null || bytes.length == 0) {
             // 3.存在，直接返回
+            metrics.miss(keyPrefix);
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        // 5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
+        // 4.命中，先读取过期信息，二进制格式无需解析数据部分
+        CacheEntry entry = decode(bytes, true);
+        LocalDateTime expireTime = entry.getExpireTime();
+        // 5.判断是否需要重建，没有逻辑过期时间（普通缓存写入的）视为已过期
+        boolean needRebuild = expireTime == null || (refreshAhead
+                ? shouldRefreshEarly(expireTime, entry.getRebuildCost())
+                : !expireTime.isAfter(LocalDateTime.now()));
+        R r = entry.getData(type);
+        if (!needRebuild && r != null) {
             // 5.1.未过期，直接返回店铺信息
+            metrics.hit(keyPrefix);
             return r;
         }
         // 5.2.已过期，需要缓存重建
@@ -100,77 +655,154 @@ public class CacheClient {
         // 6.1.获取互斥锁
         String lockKey = LOCK_SHOP_KEY + id;
         boolean isLock = tryLock(lockKey);
+        metrics.lock(keyPrefix, isLock);
         // 6.2.判断是否获取锁成功
         if (isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+            // 6.3.成功，提交到重建线程池，热点key优先（异常由线程池记录）
+            boolean submitted = rebuildExecutor.submit(key, hotKeyDetector.isHot(key), () -> {
                 try {
-                    // 查询数据库
-                    R newR = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
+                    // 查询数据库，并记录耗时
+                    long begin = System.currentTimeMillis();
+                    R newR = loadFromDb(keyPrefix, id, dbFallback);
+                    long cost = System.currentTimeMillis() - begin;
+                    if (newR == null) {
+                        // 数据已被删除，清除旧数据并记录不存在的id
+                        byteRedisTemplate.delete(key);
+                        setNull(keyPrefix, id);
+                    } else {
+                        // 重建缓存
+                        this.setWithLogicExpire(key, newR, time, unit, cost);
+                    }
+                    metrics.recordRebuild(keyPrefix, cost);
+                } finally {
                     // 释放锁
                     this.unlock(lockKey);
                 }
             });
+            if (!submitted) {
+                // 已在重建或队列已满，释放锁，继续返回旧数据
+                this.unlock(lockKey);
+            }
         }
         // 6.4.返回过期的商铺信息
+        metrics.staleServed(keyPrefix);
         return r;
     }
 
+    /**
+     * XFetch算法：now - rebuildCost * beta * ln(random) >= expireTime 时提前刷新
+     * 重建越慢、越接近过期，提前刷新的概率越高；已过期时一定刷新
+     * @param expireTime 逻辑过期时间
+     * @param rebuildCost 上次重建耗时（毫秒），可为null
+     * @return 是否需要重建
+     */
+    private boolean shouldRefreshEarly(LocalDateTime expireTime, Long rebuildCost) {
+        long gap = 0;
+        if (rebuildCost != null && rebuildCost > 0) {
+            // 1 - nextDouble() 取值范围为 (0, 1]，避免 ln(0)
+            double random = 1 - ThreadLocalRandom.current().nextDouble();
+            gap = (long) (-rebuildCost * refreshBeta * Math.log(random));
+        }
+        return !LocalDateTime.now().plus(gap, ChronoUnit.MILLIS).isBefore(expireTime);
+    }
+
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
             Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+        // 0.记录访问用于热点探测，再查本地缓存
+        hotKeyDetector.record(key);
+        R local = localCache.get(key, type);
+        if (local != null) {
+            metrics.localHit(keyPrefix);
+            return local;
         }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            // 返回一个错误信息
-            return null;
+        // 1.从redis查询商铺缓存（同时查询负缓存）
+        byte[] bytes = getValue(keyPrefix, id);
+        // 2.判断是否存在
+        if (bytes != null) {
+            // 判断命中的是否是空值
+            if (bytes.length == 0) {
+                // 返回一个错误信息
+                metrics.nullHit(keyPrefix);
+                return null;
+            }
+            // 3.存在，写入本地缓存后返回（结构不兼容时按未命中处理）
+            R r = decode(bytes, false).getData(type);
+            if (r != null) {
+                metrics.hit(keyPrefix);
+                cacheLocally(key, r);
+                return r;
+            }
         }
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
+        metrics.miss(keyPrefix);
+        // 4.实现缓存重建：本节点内的并发请求合并为一次加载，互斥锁只用于跨节点互斥
+        return singleFlight.execute(key,
+                () -> rebuildWithMutex(keyPrefix, id, type, dbFallback, time, unit));
+    }
+
+    private <R, ID> R rebuildWithMutex(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+            Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
         String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time,
-                        unit);
-            }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL,
-                        TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
+            for (int i = 0; i < MUTEX_MAX_RETRIES; i++) {
+                // 4.1.获取互斥锁
+                boolean isLock = tryLock(lockKey);
+                metrics.lock(keyPrefix, isLock);
+                if (isLock) {
+                    try {
+                        // 4.2.获取成功，双重检查，其他节点可能已经重建了缓存
+                        byte[] bytes = getValue(keyPrefix, id);
+                        if (bytes != null && bytes.length == 0) {
+                            return null;
+                        }
+                        R r = bytes == null ? null : decode(bytes, false).getData(type);
+                        return r != null ? r : loadAndCache(keyPrefix, id, dbFallback, time, unit);
+                    } finally {
+                        // 释放锁
+                        this.unlock(lockKey);
+                    }
+                }
+                // 4.3.其他节点正在重建，等待后检查缓存（本节点只有一个线程在等待）
+                Thread.sleep(MUTEX_RETRY_INTERVAL);
+                byte[] bytes = getValue(keyPrefix, id);
+                if (bytes != null && bytes.length == 0) {
+                    return null;
+                }
+                R r = bytes == null ? null : decode(bytes, false).getData(type);
+                if (r != null) {
+                    cacheLocally(key, r);
+                    return r;
+                }
             }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            this.unlock(lockKey);
         }
-        // 8.返回
+        // 4.4.等待超时，直接查询数据库兜底
+        return loadAndCache(keyPrefix, id, dbFallback, time, unit);
+    }
+
+    private <R, ID> R loadAndCache(String keyPrefix, ID id, Function<ID, R> dbFallback,
+                                   Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        long begin = System.currentTimeMillis();
+        // 根据id查询数据库
+        R r = loadFromDb(keyPrefix, id, dbFallback);
+        // 不存在，记录不存在的id
+        if (r == null) {
+            setNull(keyPrefix, id);
+            return null;
+        }
+        // 存在，写入redis
+        this.set(key, r, time, unit);
+        cacheLocally(key, r);
+        metrics.recordRebuild(keyPrefix, System.currentTimeMillis() - begin);
         return r;
     }
+
     private boolean tryLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10,
                 TimeUnit.SECONDS);
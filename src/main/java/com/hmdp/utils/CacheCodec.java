@@ -0,0 +1,30 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+
+/**
+ * 缓存值编解码器
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码缓存值
+     * @param value 缓存对象，不能为null，不存在的数据由调用方写入空值标记
+     * @param expireTime 逻辑过期时间，普通缓存传null
+     * @param rebuildCost 重建耗时（毫秒），可为null
+     * @return 写入redis的字节
+     */
+    byte[] encode(Object value, LocalDateTime expireTime, Long rebuildCost);
+
+    /**
+     * 解码缓存值，数据部分延迟到 {@link CacheEntry#getData(Class)} 时才解析
+     * @param bytes redis中读取的字节
+     * @param logicExpire 是否为逻辑过期格式
+     */
+    CacheEntry decode(byte[] bytes, boolean logicExpire);
+
+    /**
+     * 是否能解码该字节
+     */
+    boolean supports(byte[] bytes);
+}
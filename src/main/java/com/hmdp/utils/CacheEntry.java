@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+import java.time.LocalDateTime;
+
+/**
+ * 解码后的缓存值
+ * 过期信息在头部可直接读取，数据部分按需解析
+ */
+public abstract class CacheEntry {
+
+    private final LocalDateTime expireTime;
+    private final Long rebuildCost;
+
+    protected CacheEntry(LocalDateTime expireTime, Long rebuildCost) {
+        this.expireTime = expireTime;
+        this.rebuildCost = rebuildCost;
+    }
+
+    public LocalDateTime getExpireTime() {
+        return expireTime;
+    }
+
+    public Long getRebuildCost() {
+        return rebuildCost;
+    }
+
+    /**
+     * 解析数据部分
+     * @param type 目标类型
+     * @return 数据，结构不兼容时返回null
+     */
+    public abstract <R> R getData(Class<R> type);
+}
@@ -0,0 +1,18 @@
+package com.hmdp.utils;
+
+import lombok.Getter;
+
+import java.util.Collection;
+
+/**
+ * 缓存失效事件，在事务提交后删除缓存
+ */
+@Getter
+public class CacheInvalidateEvent {
+
+    private final Collection<String> keys;
+
+    public CacheInvalidateEvent(Collection<String> keys) {
+        this.keys = keys;
+    }
+}
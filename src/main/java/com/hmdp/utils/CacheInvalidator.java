@@ -0,0 +1,180 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 异步缓存失效
+ * 1.写操作只发布失效事件，事务提交后才删除缓存，避免提交前被并发读请求回填旧数据
+ * 2.待删除的key攒批后通过管道一次删除，同时移除负缓存中的记录、广播清除各节点的本地缓存，写请求不再等待redis
+ * 3.延迟双删：第一次删除后间隔一段时间再删一次，清除提交前后并发读回填的旧数据
+ * 4.删除失败按指数退避重试
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final LocalCache localCache;
+
+    private final NegativeCache negativeCache;
+
+    // 待删除的key
+    private final LinkedBlockingQueue<String> pending = new LinkedBlockingQueue<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    private final int batchSize;
+
+    private final long doubleDeleteDelayMillis;
+
+    private final int maxRetries;
+
+    private final long retryBackoffMillis;
+
+    private final Counter deleted;
+    private final Counter retried;
+    private final Counter failed;
+
+    public CacheInvalidator(StringRedisTemplate stringRedisTemplate,
+                            ApplicationEventPublisher eventPublisher,
+                            LocalCache localCache,
+                            NegativeCache negativeCache,
+                            MeterRegistry registry,
+                            @Value("${hmdp.cache.invalidate.batch-size:500}") int batchSize,
+                            @Value("${hmdp.cache.invalidate.flush-interval-millis:20}") long flushIntervalMillis,
+                            @Value("${hmdp.cache.invalidate.double-delete-delay-millis:500}") long doubleDeleteDelayMillis,
+                            @Value("${hmdp.cache.invalidate.max-retries:5}") int maxRetries,
+                            @Value("${hmdp.cache.invalidate.retry-backoff-millis:100}") long retryBackoffMillis) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.eventPublisher = eventPublisher;
+        this.localCache = localCache;
+        this.negativeCache = negativeCache;
+        this.batchSize = batchSize;
+        this.doubleDeleteDelayMillis = doubleDeleteDelayMillis;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.deleted = registry.counter("cache.invalidate.deleted");
+        this.retried = registry.counter("cache.invalidate.retried");
+        this.failed = registry.counter("cache.invalidate.failed");
+        this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "cache-invalidator");
+            t.setDaemon(true);
+            return t;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 在当前事务提交后删除缓存；没有事务时立即加入删除队列
+     * @param keys 缓存key
+     */
+    public void invalidateAfterCommit(String... keys) {
+        eventPublisher.publishEvent(new CacheInvalidateEvent(Arrays.asList(keys)));
+    }
+
+    /**
+     * 事务提交后：先清除本节点的本地缓存，再把key加入删除队列
+     * 事务回滚时不会触发，缓存保持不变
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onInvalidate(CacheInvalidateEvent event) {
+        for (String key : event.getKeys()) {
+            localCache.remove(key);
+            pending.offer(key);
+        }
+    }
+
+    /**
+     * 取出一批待删除的key执行删除
+     */
+    private void flush() {
+        List<String> batch = new ArrayList<>();
+        while (pending.drainTo(batch, batchSize) > 0) {
+            // 同一批中重复的key只删一次
+            List<String> keys = new ArrayList<>(new LinkedHashSet<>(batch));
+            batch.clear();
+            delete(keys, 0, true);
+        }
+    }
+
+    /**
+     * 通过管道删除key并广播，失败时按指数退避重试
+     * @param attempt 已重试的次数
+     * @param first 是否第一次删除，第一次删除成功后安排延迟双删
+     */
+    private void delete(List<String> keys, int attempt, boolean first) {
+        try {
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    ops.delete(keys);
+                    for (String key : keys) {
+                        // 已写入数据库的id不再视为不存在
+                        negativeCache.enqueueRemove(ops, key);
+                        // 通知各节点清除本地缓存
+                        ops.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+                    }
+                    return null;
+                }
+            });
+            deleted.increment(keys.size());
+        } catch (Exception e) {
+            if (attempt >= maxRetries) {
+                failed.increment(keys.size());
+                log.error("缓存删除失败，已重试 {} 次：{}", attempt, keys, e);
+                return;
+            }
+            long backoff = retryBackoffMillis << attempt;
+            retried.increment(keys.size());
+            log.warn("缓存删除失败，{} ms 后第 {} 次重试：{}", backoff, attempt + 1, e.getMessage());
+            scheduler.schedule(() -> delete(keys, attempt + 1, first), backoff, TimeUnit.MILLISECONDS);
+            return;
+        }
+        if (first && doubleDeleteDelayMillis > 0) {
+            // 延迟双删
+            scheduler.schedule(() -> delete(keys, 0, false), doubleDeleteDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 待删除的key数量
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 停止前把已提交的失效尽量执行完
+        flush();
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,158 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存指标，按key前缀打标签
+ * 记录各级命中、空值命中、未命中、互斥锁获取成功/失败、返回过期数据的次数，
+ * 以及缓存重建和数据库查询的耗时分布，用于判断每类数据适合哪种缓存方案
+ */
+@Component
+public class CacheMetrics {
+
+    public static final String REQUESTS = "cache.requests";
+    public static final String LOCK = "cache.lock";
+    public static final String STALE = "cache.stale";
+    public static final String REBUILD = "cache.rebuild";
+    public static final String DB_FALLBACK = "cache.db.fallback";
+
+    public static final String TAG_PREFIX = "prefix";
+    public static final String TAG_RESULT = "result";
+
+    // 查询结果
+    public static final String LOCAL_HIT = "local_hit";
+    public static final String HIT = "hit";
+    public static final String NULL_HIT = "null_hit";
+    public static final String MISS = "miss";
+
+    // 统计的分位数
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    private final MeterRegistry registry;
+
+    // 缓存已注册的指标，避免每次都到注册表中查找
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void localHit(String prefix) {
+        counter(REQUESTS, prefix, LOCAL_HIT).increment();
+    }
+
+    public void hit(String prefix) {
+        counter(REQUESTS, prefix, HIT).increment();
+    }
+
+    public void nullHit(String prefix) {
+        counter(REQUESTS, prefix, NULL_HIT).increment();
+    }
+
+    public void miss(String prefix) {
+        counter(REQUESTS, prefix, MISS).increment();
+    }
+
+    public void lock(String prefix, boolean acquired) {
+        counter(LOCK, prefix, acquired ? "acquired" : "failed").increment();
+    }
+
+    /**
+     * 返回了已过期的数据
+     */
+    public void staleServed(String prefix) {
+        counter(STALE, prefix, null).increment();
+    }
+
+    public void recordRebuild(String prefix, long millis) {
+        timer(REBUILD, prefix).record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    public void recordDbFallback(String prefix, long nanos) {
+        timer(DB_FALLBACK, prefix).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 某一查询结果在所有前缀下的总数
+     */
+    public long total(String result) {
+        return (long) registry.find(REQUESTS).tag(TAG_RESULT, result).counters().stream()
+                .mapToDouble(Counter::count).sum();
+    }
+
+    /**
+     * 按前缀汇总的指标
+     * @return 前缀 -> 指标名 -> 值
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> stats = new TreeMap<>();
+        for (Counter c : registry.find(REQUESTS).counters()) {
+            stats.computeIfAbsent(prefixOf(c), k -> new LinkedHashMap<>())
+                    .put(c.getId().getTag(TAG_RESULT), (long) c.count());
+        }
+        for (Counter c : registry.find(LOCK).counters()) {
+            stats.computeIfAbsent(prefixOf(c), k -> new LinkedHashMap<>())
+                    .put("lock_" + c.getId().getTag(TAG_RESULT), (long) c.count());
+        }
+        for (Counter c : registry.find(STALE).counters()) {
+            stats.computeIfAbsent(prefixOf(c), k -> new LinkedHashMap<>())
+                    .put("stale", (long) c.count());
+        }
+        for (Timer t : registry.find(REBUILD).timers()) {
+            stats.computeIfAbsent(prefixOf(t), k -> new LinkedHashMap<>())
+                    .put("rebuild", timerStats(t));
+        }
+        for (Timer t : registry.find(DB_FALLBACK).timers()) {
+            stats.computeIfAbsent(prefixOf(t), k -> new LinkedHashMap<>())
+                    .put("dbFallback", timerStats(t));
+        }
+        return stats;
+    }
+
+    private Counter counter(String name, String prefix, String result) {
+        return counters.computeIfAbsent(name + '|' + prefix + '|' + result, k -> {
+            Counter.Builder builder = Counter.builder(name).tag(TAG_PREFIX, prefix);
+            if (result != null) {
+                builder.tag(TAG_RESULT, result);
+            }
+            return builder.register(registry);
+        });
+    }
+
+    private Timer timer(String name, String prefix) {
+        return timers.computeIfAbsent(name + '|' + prefix, k -> Timer.builder(name)
+                .tag(TAG_PREFIX, prefix)
+                .publishPercentiles(PERCENTILES)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    private static String prefixOf(Meter meter) {
+        return meter.getId().getTag(TAG_PREFIX);
+    }
+
+    private static Map<String, Object> timerStats(Timer timer) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+        stats.put("count", snapshot.count());
+        stats.put("meanMs", snapshot.mean(TimeUnit.MILLISECONDS));
+        stats.put("maxMs", snapshot.max(TimeUnit.MILLISECONDS));
+        for (ValueAtPercentile p : snapshot.percentileValues()) {
+            stats.put("p" + Math.round(p.percentile() * 100) + "Ms", p.value(TimeUnit.MILLISECONDS));
+        }
+        return stats;
+    }
+}
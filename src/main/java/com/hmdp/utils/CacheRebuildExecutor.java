@@ -0,0 +1,166 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存重建线程池，所有异步重建共用
+ * 1.排队的任务数有上限，队列满时拒绝，由调用方继续返回旧数据
+ * 2.同一key同一时刻只有一个重建任务，与互斥锁的TTL无关，锁过期后也不会重复重建
+ * 3.热点key的任务优先执行，同优先级按提交顺序执行
+ * 4.任务异常统一记录日志，不会被吞掉
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    // 正在排队或执行的key
+    private final ConcurrentHashMap<String, Boolean> inFlight = new ConcurrentHashMap<>();
+
+    // 排队和执行中的任务总数上限
+    private final Semaphore permits;
+
+    // 提交顺序，同优先级先进先出
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Counter rejected;
+    private final Counter deduplicated;
+    private final Counter failed;
+    private final Timer queueLatency;
+    private final Timer executeLatency;
+
+    public CacheRebuildExecutor(MeterRegistry registry,
+                                @Value("${hmdp.cache.rebuild.threads:10}") int threads,
+                                @Value("${hmdp.cache.rebuild.queue-capacity:1000}") int queueCapacity) {
+        this.permits = new Semaphore(threads + queueCapacity);
+        AtomicInteger threadNumber = new AtomicInteger();
+        // 任务数已由permits限制，队列本身不需要再设上限
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "cache-rebuild-" + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.rejected = registry.counter("cache.rebuild.rejected");
+        this.deduplicated = registry.counter("cache.rebuild.deduplicated");
+        this.failed = registry.counter("cache.rebuild.failed");
+        this.queueLatency = Timer.builder("cache.rebuild.queue.latency")
+                .publishPercentiles(0.5, 0.95, 0.99).register(registry);
+        this.executeLatency = Timer.builder("cache.rebuild.execute.latency")
+                .publishPercentiles(0.5, 0.95, 0.99).register(registry);
+        Gauge.builder("cache.rebuild.queue.depth", executor, e -> e.getQueue().size()).register(registry);
+        Gauge.builder("cache.rebuild.in.flight", inFlight, ConcurrentHashMap::size).register(registry);
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 缓存key，同一key已有任务时不再提交
+     * @param hot 是否热点key，热点优先执行
+     * @param task 重建逻辑
+     * @return 是否已提交；返回false时调用方应释放自己持有的锁，并继续返回旧数据
+     */
+    public boolean submit(String key, boolean hot, Runnable task) {
+        // 1.同一key已在排队或执行
+        if (inFlight.putIfAbsent(key, Boolean.TRUE) != null) {
+            deduplicated.increment();
+            return false;
+        }
+        // 2.任务数已达上限
+        if (!permits.tryAcquire()) {
+            inFlight.remove(key);
+            rejected.increment();
+            log.warn("缓存重建队列已满，继续返回旧数据：{}", key);
+            return false;
+        }
+        try {
+            executor.execute(new RebuildTask(key, hot, sequence.getAndIncrement(), task));
+            return true;
+        } catch (RejectedExecutionException e) {
+            // 线程池已关闭
+            permits.release();
+            inFlight.remove(key);
+            rejected.increment();
+            return false;
+        }
+    }
+
+    /**
+     * 排队中的任务数
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 排队或执行中的key数量
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+        }
+    }
+
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+
+        private final String key;
+        private final boolean hot;
+        private final long seq;
+        private final Runnable task;
+        private final long submitTime = System.nanoTime();
+
+        RebuildTask(String key, boolean hot, long seq, Runnable task) {
+            this.key = key;
+            this.hot = hot;
+            this.seq = seq;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long begin = System.nanoTime();
+            queueLatency.record(begin - submitTime, TimeUnit.NANOSECONDS);
+            try {
+                task.run();
+            } catch (Throwable e) {
+                failed.increment();
+                log.error("缓存重建失败：{}", key, e);
+            } finally {
+                executeLatency.record(System.nanoTime() - begin, TimeUnit.NANOSECONDS);
+                inFlight.remove(key);
+                permits.release();
+            }
+        }
+
+        @Override
+        public int compareTo(RebuildTask o) {
+            if (hot != o.hot) {
+                return hot ? -1 : 1;
+            }
+            return Long.compare(seq, o.seq);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.hmdp.utils;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 缓存过期策略，防止缓存雪崩
+ * 在基础TTL上增加随机抖动，抖动比例可按key前缀配置；
+ * 开启滑动窗口时，每次在抖动范围内随机取两个时间点，选择已安排过期数量更少的那个，
+ * 使过期时间在窗口内尽量平均分布。
+ * 同时记录未来每一秒计划过期的key数量，用于验证负载是否平滑
+ */
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.expiry")
+public class ExpiryPolicy {
+
+    /**
+     * 默认抖动比例，实际TTL在 [ttl, ttl * (1 + jitter)] 之间
+     */
+    @Getter
+    @Setter
+    private double defaultJitter = 0.1;
+
+    /**
+     * 按key前缀配置的抖动比例，最长前缀优先
+     */
+    @Getter
+    @Setter
+    private Map<String, Double> jitter = new HashMap<>();
+
+    /**
+     * 是否开启滑动窗口，按已安排的过期数量选择过期时间
+     */
+    @Getter
+    @Setter
+    private boolean slidingWindow = false;
+
+    // 直方图覆盖的秒数，超出范围的过期时间不统计
+    private static final int HISTOGRAM_SECONDS = 2 * 60 * 60;
+
+    // 环形数组：下标为秒数对长度取模，seconds记录该槽位对应的秒，用于识别过时的槽位
+    private final AtomicLongArray seconds = new AtomicLongArray(HISTOGRAM_SECONDS);
+    private final AtomicLongArray counts = new AtomicLongArray(HISTOGRAM_SECONDS);
+
+    /**
+     * 计算加入抖动后的TTL，并记录到直方图
+     * @param key 缓存key
+     * @param time 基础TTL
+     * @param unit 时间单位
+     * @return 实际TTL（毫秒）
+     */
+    public long ttlMillis(String key, long time, TimeUnit unit) {
+        long base = unit.toMillis(time);
+        long range = (long) (base * jitterOf(key));
+        long ttl = base;
+        if (range > 0) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            ttl = base + random.nextLong(range + 1);
+            if (slidingWindow) {
+                // 两次随机选择，取已安排过期数量较少的时间点
+                long other = base + random.nextLong(range + 1);
+                if (scheduled(expireSecond(other)) < scheduled(expireSecond(ttl))) {
+                    ttl = other;
+                }
+            }
+        }
+        record(expireSecond(ttl));
+        return ttl;
+    }
+
+    /**
+     * 计算加入抖动后的逻辑过期时间
+     */
+    public LocalDateTime expireTime(String key, long time, TimeUnit unit) {
+        return LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(ttlMillis(key, time, unit)));
+    }
+
+    /**
+     * 未来一段时间内每个时间段计划过期的key数量
+     * @param bucketSeconds 每个时间段的秒数
+     * @return 时间段开始时间 -> 数量
+     */
+    public Map<LocalDateTime, Long> getHistogram(int bucketSeconds) {
+        Map<LocalDateTime, Long> histogram = new LinkedHashMap<>();
+        long now = System.currentTimeMillis() / 1000;
+        for (long second = now; second < now + HISTOGRAM_SECONDS; second += bucketSeconds) {
+            long total = 0;
+            for (long s = second; s < second + bucketSeconds; s++) {
+                total += scheduled(s);
+            }
+            if (total > 0) {
+                histogram.put(LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault()), total);
+            }
+        }
+        return histogram;
+    }
+
+    private double jitterOf(String key) {
+        String matched = null;
+        for (String prefix : jitter.keySet()) {
+            if (key.startsWith(prefix) && (matched == null || prefix.length() > matched.length())) {
+                matched = prefix;
+            }
+        }
+        return matched == null ? defaultJitter : jitter.get(matched);
+    }
+
+    private static long expireSecond(long ttlMillis) {
+        return (System.currentTimeMillis() + ttlMillis) / 1000;
+    }
+
+    private long scheduled(long second) {
+        int slot = (int) (second % HISTOGRAM_SECONDS);
+        return seconds.get(slot) == second ? counts.get(slot) : 0;
+    }
+
+    private void record(long second) {
+        long now = System.currentTimeMillis() / 1000;
+        if (second >= now + HISTOGRAM_SECONDS) {
+            return;
+        }
+        int slot = (int) (second % HISTOGRAM_SECONDS);
+        long old = seconds.get(slot);
+        if (old != second && seconds.compareAndSet(slot, old, second)) {
+            // 槽位已过时，重新计数
+            counts.set(slot, 0);
+        }
+        counts.incrementAndGet(slot);
+    }
+}
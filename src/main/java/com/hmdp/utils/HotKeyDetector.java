@@ -0,0 +1,183 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 热点key探测
+ * 使用Count-Min Sketch按采样统计key的访问次数，计数定期减半衰减。
+ * 超过阈值的key晋升为热点，在本地保存一份短TTL的副本，冷却后降级
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    // Count-Min Sketch的行数和每行宽度
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1 << 12;
+
+    private final AtomicLongArray sketch = new AtomicLongArray(DEPTH * WIDTH);
+
+    // 当前的热点key -> 估计访问次数
+    private final ConcurrentHashMap<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    private final LocalCache localCache;
+
+    private final boolean enabled;
+
+    // 采样率，(0, 1]
+    private final double sampleRate;
+
+    // 一个衰减周期内（采样后的）访问次数超过该值即晋升为热点
+    private final long threshold;
+
+    // 最多保留的热点数量
+    private final int topK;
+
+    // 热点本地副本的存活时间（毫秒）
+    private final long replicaTtlMillis;
+
+    public HotKeyDetector(LocalCache localCache,
+                          @Value("${hmdp.cache.hot-key.enabled:true}") boolean enabled,
+                          @Value("${hmdp.cache.hot-key.sample-rate:1.0}") double sampleRate,
+                          @Value("${hmdp.cache.hot-key.threshold:100}") long threshold,
+                          @Value("${hmdp.cache.hot-key.top-k:100}") int topK,
+                          @Value("${hmdp.cache.hot-key.replica-ttl-seconds:5}") long replicaTtlSeconds) {
+        this.localCache = localCache;
+        this.enabled = enabled;
+        this.sampleRate = sampleRate;
+        this.threshold = threshold;
+        this.topK = topK;
+        this.replicaTtlMillis = TimeUnit.SECONDS.toMillis(replicaTtlSeconds);
+    }
+
+    /**
+     * 记录一次访问
+     * @param key 缓存key
+     * @return 该key当前是否为热点
+     */
+    public boolean record(String key) {
+        if (!enabled) {
+            return false;
+        }
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return hotKeys.containsKey(key);
+        }
+        long estimate = Long.MAX_VALUE;
+        int hash = key.hashCode();
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, sketch.incrementAndGet(index(hash, i)));
+        }
+        if (estimate >= threshold) {
+            promote(key, estimate);
+        }
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 是否为热点key
+     */
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 热点key在本地保存短TTL副本
+     */
+    public void putReplica(String key, Object value) {
+        localCache.putHot(key, value, replicaTtlMillis);
+    }
+
+    /**
+     * 当前的热点key，按访问次数从高到低
+     */
+    public List<Map<String, Object>> getTopK() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        hotKeys.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(e -> {
+                    Map<String, Object> item = new LinkedHashMap<>();
+                    item.put("key", e.getKey());
+                    item.put("count", e.getValue());
+                    list.add(item);
+                });
+        return list;
+    }
+
+    /**
+     * 定期衰减：计数减半，冷却的热点降级并删除本地副本
+     */
+    @Scheduled(fixedRateString = "${hmdp.cache.hot-key.decay-millis:10000}")
+    public void decay() {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < sketch.length(); i++) {
+            long v = sketch.get(i);
+            if (v > 0) {
+                sketch.addAndGet(i, -(v >> 1) - (v & 1));
+            }
+        }
+        hotKeys.forEach((key, count) -> {
+            long estimate = estimate(key);
+            // 降到阈值一半以下才降级，避免在阈值附近反复晋升降级
+            if (estimate < threshold / 2) {
+                hotKeys.remove(key);
+                localCache.removeHot(key);
+                log.debug("热点key降级：{}", key);
+            } else {
+                hotKeys.put(key, estimate);
+            }
+        });
+    }
+
+    private void promote(String key, long estimate) {
+        if (hotKeys.containsKey(key) || hotKeys.size() < topK) {
+            if (hotKeys.put(key, estimate) == null) {
+                log.debug("热点key晋升：{}", key);
+            }
+            return;
+        }
+        // 已满，替换掉访问次数最少的热点
+        Map.Entry<String, Long> coldest = null;
+        for (Map.Entry<String, Long> e : hotKeys.entrySet()) {
+            if (coldest == null || e.getValue() < coldest.getValue()) {
+                coldest = e;
+            }
+        }
+        if (coldest != null && coldest.getValue() < estimate && hotKeys.remove(coldest.getKey()) != null) {
+            localCache.removeHot(coldest.getKey());
+            hotKeys.put(key, estimate);
+            log.debug("热点key晋升：{}，替换：{}", key, coldest.getKey());
+        }
+    }
+
+    private long estimate(String key) {
+        long estimate = Long.MAX_VALUE;
+        int hash = key.hashCode();
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, sketch.get(index(hash, i)));
+        }
+        return estimate;
+    }
+
+    private static int index(int hash, int row) {
+        // 每行使用不同的种子打散
+        int h = (hash ^ (row * 0x9E3779B9)) * 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return row * WIDTH + (h & (WIDTH - 1));
+    }
+}
@@ -0,0 +1,57 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+/**
+ * JSON编解码，与原有的缓存格式一致
+ * 普通缓存直接存对象JSON，逻辑过期缓存存 {@link RedisData} 的JSON
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value, LocalDateTime expireTime, Long rebuildCost) {
+        if (value == null) {
+            throw new IllegalArgumentException("缓存值不能为null");
+        }
+        if (expireTime == null) {
+            return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(expireTime);
+        redisData.setRebuildCost(rebuildCost);
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public CacheEntry decode(byte[] bytes, boolean logicExpire) {
+        String json = new String(bytes, StandardCharsets.UTF_8);
+        if (!logicExpire) {
+            return new CacheEntry(null, null) {
+                @Override
+                public <R> R getData(Class<R> type) {
+                    return JSONUtil.toBean(json, type);
+                }
+            };
+        }
+        // 只解析一次，data部分直接从JSONObject转换
+        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        return new CacheEntry(redisData.getExpireTime(), redisData.getRebuildCost()) {
+            @Override
+            public <R> R getData(Class<R> type) {
+                Object data = redisData.getData();
+                // 不是RedisData格式（如普通缓存写入的对象），按未命中处理
+                return data instanceof JSONObject ? JSONUtil.toBean((JSONObject) data, type) : null;
+            }
+        };
+    }
+
+    @Override
+    public boolean supports(byte[] bytes) {
+        return !BinaryCacheCodec.isBinary(bytes);
+    }
+}
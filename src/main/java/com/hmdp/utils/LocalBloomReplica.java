@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+/**
+ * 布隆过滤器在本地内存中的副本
+ * 位数组使用long[]保存，查询只需计算位置后读取内存；写入很少，加锁执行
+ */
+public class LocalBloomReplica {
+
+    private final long bitSize;
+
+    private final long[] words;
+
+    // 已同步到的版本号，只有连续的增量才会推进，出现缺口时等待全量同步
+    private long version;
+
+    /**
+     * @param bitSize 位数组大小
+     * @param bitmap 从redis读取的位数组，每个字节的最高位为偏移量最小的位
+     * @param version 读取位数组之前的版本号
+     */
+    public LocalBloomReplica(long bitSize, byte[] bitmap, long version) {
+        this.bitSize = bitSize;
+        this.words = new long[(int) ((bitSize + 63) >>> 6)];
+        this.version = version;
+        if (bitmap != null) {
+            // 超出位数组大小的部分（旧版本的位数组）忽略
+            int bytes = (int) Math.min(bitmap.length, (bitSize + 7) >>> 3);
+            for (int i = 0; i < bytes; i++) {
+                // 反转字节内的位序，使偏移量最小的位在最低位
+                long reversed = Integer.reverse(bitmap[i] & 0xFF) >>> 24;
+                words[i >>> 3] |= reversed << ((i & 7) << 3);
+            }
+        }
+    }
+
+    public boolean mightContain(long[] indexes) {
+        for (long index : indexes) {
+            if ((words[(int) (index >>> 6)] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized void set(long[] indexes) {
+        for (long index : indexes) {
+            words[(int) (index >>> 6)] |= 1L << index;
+        }
+    }
+
+    /**
+     * 应用增量后推进版本号
+     * @param newVersion 增量对应的版本号
+     */
+    public synchronized void advance(long newVersion) {
+        if (newVersion == version + 1) {
+            version = newVersion;
+        }
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+}
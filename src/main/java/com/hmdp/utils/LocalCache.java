@@ -0,0 +1,128 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 进程内一级缓存（L1）
+ * 位于Redis之前，容量和存活时间有上限，热点数据命中时无需任何网络往返
+ * 另有一块热点副本区，保存 {@link HotKeyDetector} 探测到的热点key，不受enabled开关影响
+ * 注意：缓存的是反序列化后的对象，调用方不要修改返回的对象
+ * 清除key时（事务提交后本节点清除，以及收到其他节点的失效广播）通知已注册的监听器，
+ * 用于同步清除由缓存对象派生的数据
+ */
+@Component
+public class LocalCache {
+
+    private final boolean enabled;
+
+    private final LRUCache<String, Object> cache;
+
+    // 热点key的短TTL副本
+    private final LRUCache<String, Object> hotCache;
+
+    // 命中统计，用于评估容量
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // 清除key时的监听器
+    private final List<Consumer<String>> removalListeners = new CopyOnWriteArrayList<>();
+
+    public LocalCache(@Value("${hmdp.cache.local.enabled:true}") boolean enabled,
+                      @Value("${hmdp.cache.local.max-size:1000}") int maxSize,
+                      @Value("${hmdp.cache.local.ttl-seconds:60}") long ttlSeconds,
+                      @Value("${hmdp.cache.hot-key.top-k:100}") int hotSize) {
+        this.enabled = enabled;
+        this.cache = CacheUtil.newLRUCache(maxSize, TimeUnit.SECONDS.toMillis(ttlSeconds));
+        this.hotCache = CacheUtil.newLRUCache(hotSize);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 查询本地缓存
+     * @param key 缓存key
+     * @param type 目标类型
+     * @return 命中返回对象，未命中或类型不符返回null
+     */
+    public <R> R get(String key, Class<R> type) {
+        Object value = enabled ? cache.get(key, false) : null;
+        if (value == null) {
+            value = hotCache.get(key, false);
+        }
+        if (value == null && !enabled) {
+            return null;
+        }
+        if (type.isInstance(value)) {
+            hits.increment();
+            return type.cast(value);
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(String key, Object value) {
+        if (enabled && value != null) {
+            cache.put(key, value);
+        }
+    }
+
+    public void put(String key, Object value, long timeoutMillis) {
+        if (enabled && value != null) {
+            cache.put(key, value, timeoutMillis);
+        }
+    }
+
+    public void remove(String key) {
+        if (enabled) {
+            cache.remove(key);
+        }
+        hotCache.remove(key);
+        for (Consumer<String> listener : removalListeners) {
+            listener.accept(key);
+        }
+    }
+
+    /**
+     * 注册清除key时的监听器
+     * @param listener 参数为被清除的key
+     */
+    public void addRemovalListener(Consumer<String> listener) {
+        removalListeners.add(listener);
+    }
+
+    /**
+     * 保存热点key的副本
+     */
+    public void putHot(String key, Object value, long timeoutMillis) {
+        if (value != null) {
+            hotCache.put(key, value, timeoutMillis);
+        }
+    }
+
+    public void removeHot(String key) {
+        hotCache.remove(key);
+    }
+
+    public int size() {
+        return cache.size() + hotCache.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,137 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_KEY;
+
+/**
+ * 不存在id的紧凑负缓存
+ * 不再为每个不存在的id单独写一个空字符串key，而是按时间片把id放进同一个set，
+ * 整个时间片的set到期后一起过期，穿透流量下redis的key数量保持不变。
+ * 查询时检查当前和上一个时间片，一个id被记住的时间在1~2个时间片之间；
+ * 删除缓存时同时从这两个时间片中移除id，新写入的数据不会被误判为不存在
+ */
+@Component
+public class NegativeCache {
+
+    // 每次查询在管道中追加的命令数
+    public static final int COMMANDS_PER_LOOKUP = 2;
+
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    private final boolean enabled;
+
+    private final long sliceSeconds;
+
+    public NegativeCache(RedisTemplate<String, byte[]> byteRedisTemplate,
+                         @Value("${hmdp.cache.negative.enabled:true}") boolean enabled,
+                         @Value("${hmdp.cache.negative.slice-seconds:60}") long sliceSeconds) {
+        this.byteRedisTemplate = byteRedisTemplate;
+        this.enabled = enabled;
+        this.sliceSeconds = sliceSeconds;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 记录不存在的id
+     */
+    public void add(String keyPrefix, Object id) {
+        addAll(keyPrefix, Collections.singletonList(id));
+    }
+
+    /**
+     * 批量记录不存在的id，一次管道写入
+     */
+    public void addAll(String keyPrefix, Collection<?> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        long slice = currentSlice();
+        String bucket = bucketKey(keyPrefix, slice);
+        byte[][] members = ids.stream().map(NegativeCache::member).toArray(byte[][]::new);
+        // 整个时间片在两个时间片之后统一过期
+        Date expireAt = new Date((slice + 2) * sliceSeconds * 1000);
+        byteRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, byte[]> ops = (RedisOperations<String, byte[]>) operations;
+                ops.opsForSet().add(bucket, members);
+                ops.expireAt(bucket, expireAt);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 在管道中追加查询命令，每个id追加 {@link #COMMANDS_PER_LOOKUP} 个结果
+     */
+    public void enqueueLookup(RedisOperations<String, byte[]> ops, String keyPrefix, Object id) {
+        long slice = currentSlice();
+        byte[] member = member(id);
+        ops.opsForSet().isMember(bucketKey(keyPrefix, slice), member);
+        ops.opsForSet().isMember(bucketKey(keyPrefix, slice - 1), member);
+    }
+
+    /**
+     * 在管道中追加移除命令：从当前和上一个时间片中移除缓存key对应的id
+     * @param key 缓存key，即 key前缀 + id，key前缀以冒号结尾
+     */
+    public void enqueueRemove(RedisOperations<String, String> ops, String key) {
+        int split = key.lastIndexOf(':') + 1;
+        if (!enabled || split == 0 || split == key.length()) {
+            return;
+        }
+        remove(ops, key.substring(0, split), key.substring(split));
+    }
+
+    /**
+     * 在管道中追加移除命令：从当前和上一个时间片中移除id
+     */
+    public void remove(RedisOperations<String, String> ops, String keyPrefix, Object id) {
+        long slice = currentSlice();
+        String member = String.valueOf(id);
+        ops.opsForSet().remove(bucketKey(keyPrefix, slice), member);
+        ops.opsForSet().remove(bucketKey(keyPrefix, slice - 1), member);
+    }
+
+    /**
+     * 解析 {@link #enqueueLookup} 的结果
+     * @param results 管道返回的结果
+     * @param offset 该id的查询结果在results中的起始位置
+     * @return 是否已知不存在
+     */
+    public boolean isMissing(List<Object> results, int offset) {
+        for (int i = offset; i < offset + COMMANDS_PER_LOOKUP; i++) {
+            if (Boolean.TRUE.equals(results.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long currentSlice() {
+        return System.currentTimeMillis() / 1000 / sliceSeconds;
+    }
+
+    private static String bucketKey(String keyPrefix, long slice) {
+        return CACHE_NULL_KEY + keyPrefix + slice;
+    }
+
+    private static byte[] member(Object id) {
+        return String.valueOf(id).getBytes(StandardCharsets.UTF_8);
+    }
+}
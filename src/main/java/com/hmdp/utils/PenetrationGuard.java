@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 缓存穿透防护
+ * 方法执行前先用实体对应的布隆过滤器（bloom:实体名）判断id是否存在，一定不存在时直接返回，不再查询数据库
+ * 被拦截时，返回值为Result的方法返回 Result.fail(message)，其他方法返回null
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface PenetrationGuard {
+
+    /**
+     * 实体类，需要在 BloomFilterInit.GUARDED_ENTITIES 中
+     */
+    Class<?> entity();
+
+    /**
+     * id所在参数的下标
+     */
+    int idIndex() default 0;
+
+    /**
+     * 被拦截时的提示
+     */
+    String message() default "数据不存在";
+}
@@ -0,0 +1,89 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 处理 @PenetrationGuard，在事务等其他切面之前执行，被拦截的请求不会开启事务
+ * 按实体记录放行、拦截和未就绪放行的次数
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class PenetrationGuardAspect {
+
+    public static final String GUARD = "bloom.guard";
+    public static final String TAG_ENTITY = "entity";
+    public static final String TAG_RESULT = "result";
+
+    private static final String PASSED = "passed";
+    private static final String REJECTED = "rejected";
+    private static final String BYPASSED = "bypassed";
+
+    @Resource
+    private BloomFilterUtil bloomFilterUtil;
+
+    @Resource
+    private MeterRegistry registry;
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    @Around("@annotation(guard)")
+    public Object around(ProceedingJoinPoint joinPoint, PenetrationGuard guard) throws Throwable {
+        Object id = joinPoint.getArgs()[guard.idIndex()];
+        if (id == null) {
+            return joinPoint.proceed();
+        }
+        Class<?> entity = guard.entity();
+        String name = BloomFilterUtil.entityName(entity);
+        String key = BloomFilterUtil.keyOf(entity);
+        // 1.布隆过滤器还没有初始化完成，直接放行
+        if (!bloomFilterUtil.isReady(key)) {
+            counter(name, BYPASSED).increment();
+            return joinPoint.proceed();
+        }
+        // 2.布隆过滤器判断一定不存在，直接返回
+        if (!bloomFilterUtil.mightContain(key, id.toString())) {
+            counter(name, REJECTED).increment();
+            Class<?> returnType = ((MethodSignature) joinPoint.getSignature()).getReturnType();
+            return Result.class.equals(returnType) ? Result.fail(guard.message()) : null;
+        }
+        // 3.可能存在，执行原方法
+        counter(name, PASSED).increment();
+        return joinPoint.proceed();
+    }
+
+    /**
+     * 按实体汇总的放行和拦截次数
+     * @return 实体名 -> 结果 -> 次数
+     */
+    public Map<String, Map<String, Long>> snapshot() {
+        Map<String, Map<String, Long>> stats = new TreeMap<>();
+        for (Counter c : registry.find(GUARD).counters()) {
+            stats.computeIfAbsent(c.getId().getTag(TAG_ENTITY), k -> new LinkedHashMap<>())
+                    .put(c.getId().getTag(TAG_RESULT), (long) c.count());
+        }
+        return stats;
+    }
+
+    private Counter counter(String entity, String result) {
+        return counters.computeIfAbsent(entity + '|' + result, k -> Counter.builder(GUARD)
+                .tag(TAG_ENTITY, entity)
+                .tag(TAG_RESULT, result)
+                .register(registry));
+    }
+}
@@ -7,17 +7,34 @@ public class RedisConstants {
     public static final Long LOGIN_USER_TTL = 36000L;
 
     public static final Long CACHE_NULL_TTL = 2L;
+    // 负缓存时间片的key前缀
+    public static final String CACHE_NULL_KEY = "cache:null:";
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    // 店铺的hash结构缓存，列表、卡片场景只读取需要的字段
+    public static final String CACHE_SHOP_HASH_KEY = "cache:shop-hash:";
     
     // 逻辑过期时间（秒），用于逻辑过期方案，便于测试和观察效果
     public static final Long CACHE_SHOP_LOGIC_EXPIRE = 10L; // 10秒，可根据需要调整
 
+    // 缓存失效广播频道，用于清除各节点的本地缓存
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
+    // 秒杀信息hash：stock、begin、end（毫秒）
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    // 秒杀已购用户set
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    // 秒杀信息在秒杀结束后继续保留的时间（分钟），之后自动过期
+    public static final Long SECKILL_EXPIRE_GRACE = 60L;
+    // 不是秒杀券的标记，避免反复查询数据库，过期时间同CACHE_NULL_TTL
+    public static final String SECKILL_NONE_KEY = "seckill:none:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
@@ -25,7 +42,16 @@ public class RedisConstants {
     
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop-type:list";
     public static final Long CACHE_SHOP_TYPE_TTL = 30L;
+    // 店铺类型的版本号和变更广播频道
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shop-type:version";
+    public static final String CACHE_SHOP_TYPE_CHANNEL = "cache:shop-type:changed";
     
-    // 布隆过滤器相关常量
+    // 布隆过滤器相关常量，每个受保护的实体一个：bloom:实体名
+    public static final String BLOOM_FILTER_KEY_PREFIX = "bloom:";
     public static final String BLOOM_FILTER_SHOP_KEY = "bloom:shop";
+    // 布隆过滤器增量同步频道，用于更新各节点的本地副本
+    public static final String BLOOM_FILTER_CHANNEL = "bloom:delta";
+
+    // Snowflake worker id租约：id:worker:{workerId} -> 持有者
+    public static final String ID_WORKER_KEY = "id:worker:";
 }
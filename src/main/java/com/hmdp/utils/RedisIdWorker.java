@@ -1,39 +1,242 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Reids实现全局唯一id
+ * id = 时间戳(秒) << 32 | 当天的序列号，序列号按业务前缀和日期在redis中自增
+ * 开启号段模式后，每次用INCRBY预留一段序列号，在本地用AtomicLong分配，
+ * 当前号段用掉80%时异步预取下一段，跨天时丢弃前一天的号段
  */
+@Slf4j
 @Component
 public class RedisIdWorker {
     private static final long BEGIN_TIMESTAMP = 1640995200L;//开始时间戳
     private static final int COUNT_BITS = 32;//序列号位数
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    // 号段用到该比例时预取下一段
+    private static final double PREFETCH_RATIO = 0.8;
+
     private StringRedisTemplate stringRedisTemplate;
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    // 是否开启号段模式
+    private final boolean segmentEnabled;
+
+    // 每个号段的大小
+    private final long segmentSize;
+
+    // 当前日期，跨天时替换
+    private volatile Day currentDay;
+
+    // 业务前缀 -> 号段分配器
+    private final Map<String, SegmentAllocator> allocators = new ConcurrentHashMap<>();
+
+    // 异步预取号段的线程
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "id-segment-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate,
+                         @Value("${hmdp.id.segment.enabled:false}") boolean segmentEnabled,
+                         @Value("${hmdp.id.segment.size:1000}") long segmentSize) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.segmentEnabled = segmentEnabled;
+        this.segmentSize = segmentSize;
     }
 
     public long nextId(String keyPrefix) {
         // 1.生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        // 使用系统默认时区转换为时间戳
-        long nowSecond = now.atZone(ZoneId.systemDefault()).toEpochSecond();
+        long nowSecond = System.currentTimeMillis() / 1000;
         long timestamp = nowSecond - BEGIN_TIMESTAMP;
         // 2.生成序列号
         // 2.1 获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2 自增长，获取当前日期的序列号
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        Day day = dayOf(nowSecond);
+        // 2.2 获取当前日期的序列号：号段模式从本地号段分配，否则每次自增
+        long count = segmentEnabled
+                ? allocators.computeIfAbsent(keyPrefix, SegmentAllocator::new).next(day)
+                : increment(keyPrefix, day, 1);
 
         // 3.拼接并返回：符号位+时间戳+序列号
         return timestamp << COUNT_BITS | count;
     }
+
+    /**
+     * 某一时刻对应的最小id：该秒生成的id都不小于它，之前生成的id都小于它
+     * 时间范围 [begin, end) 对应id范围 [minIdAt(begin), minIdAt(end))，精确到秒
+     */
+    public static long minIdAt(LocalDateTime time) {
+        long second = time.atZone(ZoneId.systemDefault()).toEpochSecond();
+        return Math.max(second - BEGIN_TIMESTAMP, 0) << COUNT_BITS;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * 时间戳所在的日期，同一天内复用，不再每次格式化
+     */
+    private Day dayOf(long nowSecond) {
+        Day day = currentDay;
+        if (day != null && day.contains(nowSecond)) {
+            return day;
+        }
+        // 使用系统默认时区
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate date = Instant.ofEpochSecond(nowSecond).atZone(zone).toLocalDate();
+        Day newDay = new Day(date.format(DATE_FORMATTER),
+                date.atStartOfDay(zone).toEpochSecond(),
+                date.plusDays(1).atStartOfDay(zone).toEpochSecond());
+        // 只向后替换，跨天时还在处理前一秒的线程不会把日期改回去
+        if (day == null || newDay.startSecond > day.startSecond) {
+            currentDay = newDay;
+        }
+        return newDay;
+    }
+
+    /**
+     * 当天的序列号自增
+     * @return 自增后的值
+     */
+    private long increment(String keyPrefix, Day day, long delta) {
+        Long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + day.date, delta);
+        if (count == null) {
+            throw new IllegalStateException("生成序列号失败：" + keyPrefix);
+        }
+        return count;
+    }
+
+    /**
+     * 日期，以及这一天的起止时间戳
+     */
+    private static class Day {
+        final String date;
+        final long startSecond;
+        final long endSecond;
+
+        Day(String date, long startSecond, long endSecond) {
+            this.date = date;
+            this.startSecond = startSecond;
+            this.endSecond = endSecond;
+        }
+
+        boolean contains(long second) {
+            return second >= startSecond && second < endSecond;
+        }
+    }
+
+    /**
+     * 号段：某一天的一段连续序列号 [cursor, max]
+     */
+    private static class Segment {
+        final Day day;
+        final AtomicLong cursor;
+        final long max;
+        // 分配到该值时预取下一段
+        final long prefetchAt;
+
+        Segment(Day day, long min, long max) {
+            this.day = day;
+            this.cursor = new AtomicLong(min);
+            this.max = max;
+            this.prefetchAt = min + (long) ((max - min + 1) * PREFETCH_RATIO);
+        }
+    }
+
+    /**
+     * 一个业务前缀的号段分配器
+     */
+    private class SegmentAllocator {
+        private final String keyPrefix;
+        // 当前号段
+        private volatile Segment current;
+        // 预取中的下一号段
+        private CompletableFuture<Segment> next;
+
+        SegmentAllocator(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        long next(Day day) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.day.startSecond > day.startSecond) {
+                    // 跨天时其他线程已切换到新一天的号段，前一天的最后几个请求直接自增
+                    return increment(keyPrefix, day, 1);
+                }
+                if (segment != null && segment.day.startSecond == day.startSecond) {
+                    long value = segment.cursor.getAndIncrement();
+                    if (value <= segment.max) {
+                        if (value == segment.prefetchAt) {
+                            prefetch(segment);
+                        }
+                        return value;
+                    }
+                }
+                // 号段用完，或者已经跨天
+                switchSegment(segment, day);
+            }
+        }
+
+        /**
+         * 异步预取下一号段
+         */
+        private synchronized void prefetch(Segment segment) {
+            if (next != null || current != segment) {
+                return;
+            }
+            Day day = segment.day;
+            next = CompletableFuture.supplyAsync(() -> allocate(day), prefetchExecutor);
+        }
+
+        /**
+         * 切换到下一号段，优先使用预取的号段；只有一个线程会执行切换
+         */
+        private synchronized void switchSegment(Segment exhausted, Day day) {
+            if (current != exhausted) {
+                // 其他线程已切换
+                return;
+            }
+            Segment segment = null;
+            if (next != null) {
+                try {
+                    segment = next.join();
+                } catch (Exception e) {
+                    log.warn("预取号段失败，同步获取：{}", keyPrefix, e);
+                }
+                next = null;
+            }
+            if (segment == null || segment.day.startSecond != day.startSecond) {
+                // 没有预取，或者预取的是前一天的号段
+                segment = allocate(day);
+            }
+            current = segment;
+        }
+
+        private Segment allocate(Day day) {
+            long max = increment(keyPrefix, day, segmentSize);
+            return new Segment(day, max - segmentSize + 1, max);
+        }
+    }
 }
@@ -0,0 +1,249 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+
+/**
+ * Snowflake实现全局唯一id，生成时不访问redis
+ * id = 基准id + (时间戳(毫秒，从启用时间epoch开始) << 22 | worker id(10位) << 12 | 序列号(12位))
+ * 基准id为RedisIdWorker在epoch时刻的最小id：启用前RedisIdWorker生成的id都小于它，切换后id继续递增，不会重复；
+ * Snowflake每毫秒的id跨度比RedisIdWorker每秒的跨度小，不加基准id时相同时刻的id反而更小
+ * 1.worker id通过redis租约获取（id:worker:{workerId}），定期续期；续期失败超过租期后停止生成，避免与新持有者重复；
+ *   上一个持有者最多借用到 max-backward-millis 之后的时间戳，获取租约后从该时间之后开始生成
+ * 2.上次的时间戳和序列号打包在一个long中，通过CAS无锁更新
+ * 3.时钟回拨不超过上限时继续使用上次的时间戳，借用后续的序列号（序列号用完则借用下一毫秒）；超过上限时拒绝生成
+ */
+@Slf4j
+@Component
+public class SnowflakeIdWorker {
+    private static final int WORKER_BITS = 10;//worker id位数
+    private static final int SEQUENCE_BITS = 12;//序列号位数
+    private static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("worker_lease_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // 是否开启
+    private final boolean enabled;
+
+    // 租期
+    private final long leaseMillis;
+
+    // 允许的最大时钟回拨，也是借用未来时间的上限
+    private final long maxBackwardMillis;
+
+    // 启用时间（毫秒，取整到秒），未配置时为-1
+    private final long epochMillis;
+
+    // 基准id：RedisIdWorker在启用时间的最小id
+    private final long baseId;
+
+    // 租约持有者标识
+    private final String owner = UUID.randomUUID().toString();
+
+    // 上次的时间戳 << SEQUENCE_BITS | 上次的序列号
+    private final AtomicLong state = new AtomicLong();
+
+    // 当前持有的worker id，-1表示没有
+    private volatile long workerId = -1;
+
+    // 本地判断的租约到期时间，按发出续期请求的时间计算，不晚于redis中的到期时间
+    private volatile long leaseExpiresAt;
+
+    public SnowflakeIdWorker(StringRedisTemplate stringRedisTemplate,
+                             @Value("${hmdp.id.snowflake.enabled:false}") boolean enabled,
+                             @Value("${hmdp.id.snowflake.lease-millis:30000}") long leaseMillis,
+                             @Value("${hmdp.id.snowflake.max-backward-millis:5000}") long maxBackwardMillis,
+                             @Value("${hmdp.id.snowflake.epoch:}") String epoch) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.enabled = enabled;
+        this.leaseMillis = leaseMillis;
+        this.maxBackwardMillis = maxBackwardMillis;
+        if (StrUtil.isBlank(epoch)) {
+            this.epochMillis = -1;
+            this.baseId = 0;
+        } else {
+            LocalDateTime time = LocalDateTime.parse(epoch.trim());
+            this.epochMillis = time.atZone(ZoneId.systemDefault()).toEpochSecond() * 1000;
+            this.baseId = RedisIdWorker.minIdAt(time);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        if (epochMillis < 0 || epochMillis > System.currentTimeMillis()) {
+            throw new IllegalStateException("开启Snowflake需要配置不晚于当前时间的 hmdp.id.snowflake.epoch");
+        }
+        acquireLease();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    public long nextId() {
+        long worker = workerId;
+        if (worker < 0 || System.currentTimeMillis() >= leaseExpiresAt) {
+            throw new IllegalStateException("没有有效的worker id租约");
+        }
+        while (true) {
+            long now = System.currentTimeMillis() - epochMillis;
+            long current = state.get();
+            long lastTimestamp = current >>> SEQUENCE_BITS;
+            long timestamp;
+            long sequence;
+            if (now > lastTimestamp) {
+                // 1.进入新的毫秒，序列号从0开始
+                timestamp = now;
+                sequence = 0;
+            } else {
+                // 2.同一毫秒，或者时钟回拨：继续使用上次的时间戳，借用后续的序列号
+                if (lastTimestamp - now > maxBackwardMillis) {
+                    throw new IllegalStateException("时钟回拨 " + (lastTimestamp - now) + " ms，拒绝生成id");
+                }
+                timestamp = lastTimestamp;
+                sequence = (current & SEQUENCE_MASK) + 1;
+                if (sequence > SEQUENCE_MASK) {
+                    // 序列号用完，借用下一毫秒；借用过多时等待时钟追上
+                    if (lastTimestamp + 1 - now > maxBackwardMillis) {
+                        Thread.yield();
+                        continue;
+                    }
+                    timestamp = lastTimestamp + 1;
+                    sequence = 0;
+                }
+            }
+            // 3.CAS更新，失败说明有其他线程抢先，重试
+            if (state.compareAndSet(current, timestamp << SEQUENCE_BITS | sequence)) {
+                return baseId + (timestamp << (WORKER_BITS + SEQUENCE_BITS) | worker << SEQUENCE_BITS | sequence);
+            }
+        }
+    }
+
+    /**
+     * 某一时刻对应的最小id：该毫秒生成的id都不小于它，之前生成的id都小于它
+     * 启用时间之前按RedisIdWorker的格式计算，两段在启用时间处相接，整体仍然递增；
+     * 时间范围 [begin, end) 对应id范围 [minIdAt(begin), minIdAt(end))；
+     * 时钟回拨时借用的时间戳最多偏差 max-backward-millis
+     */
+    public long minIdAt(LocalDateTime time) {
+        long millis = time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if (epochMillis < 0 || millis < epochMillis) {
+            return RedisIdWorker.minIdAt(time);
+        }
+        return baseId + ((millis - epochMillis) << (WORKER_BITS + SEQUENCE_BITS));
+    }
+
+    /**
+     * 检查已有的id都小于本节点将要生成的id，否则拒绝启动
+     * 已有的Snowflake id最多借用 max-backward-millis 的未来时间，超过说明启用时间之后仍有RedisIdWorker生成的id
+     * @param maxExistingId 已有的最大id
+     */
+    public void checkAbove(long maxExistingId) {
+        long limit = minIdAt(LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(maxBackwardMillis)));
+        if (maxExistingId >= limit) {
+            throw new IllegalStateException("已有id " + maxExistingId + " 不小于Snowflake将生成的id "
+                    + limit + "，请检查 hmdp.id.snowflake.epoch");
+        }
+    }
+
+    /**
+     * 定期续期租约；租约已丢失时重新获取
+     */
+    @Scheduled(fixedDelayString = "${hmdp.id.snowflake.heartbeat-millis:10000}")
+    public void heartbeat() {
+        if (!enabled) {
+            return;
+        }
+        long worker = workerId;
+        if (worker < 0) {
+            acquireLease();
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(ID_WORKER_KEY + worker), owner, String.valueOf(leaseMillis));
+            if (renewed != null && renewed == 1) {
+                leaseExpiresAt = begin + leaseMillis;
+                return;
+            }
+            // 租约已被其他实例获取，换一个worker id
+            log.warn("worker id租约已丢失：{}", worker);
+            workerId = -1;
+            acquireLease();
+        } catch (Exception e) {
+            // redis暂时不可用，租期内继续使用当前worker id
+            log.error("worker id租约续期失败：{}", worker, e);
+        }
+    }
+
+    /**
+     * 从随机位置开始依次尝试获取worker id
+     */
+    private void acquireLease() {
+        long start = ThreadLocalRandom.current().nextLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long worker = (start + i) & MAX_WORKER_ID;
+            long begin = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + worker, owner, leaseMillis, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                // 上一个持有者（释放、宕机或租约丢失）可能已用到 当前时间 + max-backward-millis，
+                // 把上次的时间戳推到该时间且序列号用完，下一个id从之后的毫秒开始
+                long skip = System.currentTimeMillis() + maxBackwardMillis - epochMillis;
+                state.accumulateAndGet(skip << SEQUENCE_BITS | SEQUENCE_MASK, Math::max);
+                leaseExpiresAt = begin + leaseMillis;
+                workerId = worker;
+                log.info("已获取worker id：{}", worker);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有可用的worker id");
+    }
+
+    @PreDestroy
+    public void release() {
+        long worker = workerId;
+        if (worker < 0) {
+            return;
+        }
+        workerId = -1;
+        // 只释放自己持有的租约
+        if (owner.equals(stringRedisTemplate.opsForValue().get(ID_WORKER_KEY + worker))) {
+            stringRedisTemplate.delete(ID_WORKER_KEY + worker);
+        }
+    }
+}
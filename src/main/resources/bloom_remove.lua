@@ -0,0 +1,19 @@
+-- 计数布隆过滤器删除元素
+-- KEYS[1] 位数组，KEYS[2] 计数器（每个位置4位），KEYS[3] 布局（meta）
+-- ARGV[1] 计算位置时使用的代标识，ARGV[2..] 元素的所有位置
+-- 返回 1成功，0代标识不一致（已被替换为新一代），未做修改
+if (redis.call('HGET', KEYS[3], 'gen') or '') ~= ARGV[1] then
+    return 0
+end
+for i = 2, #ARGV do
+    local offset = '#' .. ARGV[i]
+    local count = redis.call('BITFIELD', KEYS[2], 'GET', 'u4', offset)[1]
+    -- 计数为0说明元素不存在，计数已饱和（15）时无法确定真实次数，都不再递减
+    if count > 0 and count < 15 then
+        count = redis.call('BITFIELD', KEYS[2], 'INCRBY', 'u4', offset, -1)[1]
+        if count == 0 then
+            redis.call('SETBIT', KEYS[1], ARGV[i], 0)
+        end
+    end
+end
+return 1
@@ -0,0 +1,31 @@
+-- 秒杀资格判断：时间、库存、一人一单，全部通过后扣减库存并记录用户
+-- KEYS[1] 秒杀信息hash（stock、begin、end），KEYS[2] 已购用户set
+-- ARGV[1] 用户id，ARGV[2] 当前时间（毫秒）
+-- 返回 0成功，1库存不足，2重复下单，3未开始，4已结束，5未加载
+local info = redis.call('HMGET', KEYS[1], 'stock', 'begin', 'end')
+if not info[1] or not info[2] or not info[3] then
+    return 5
+end
+local now = tonumber(ARGV[2])
+if now < tonumber(info[2]) then
+    return 3
+end
+if now > tonumber(info[3]) then
+    return 4
+end
+if tonumber(info[1]) <= 0 then
+    return 1
+end
+if redis.call('SISMEMBER', KEYS[2], ARGV[1]) == 1 then
+    return 2
+end
+redis.call('HINCRBY', KEYS[1], 'stock', -1)
+redis.call('SADD', KEYS[2], ARGV[1])
+-- 已购用户set由本脚本首次创建时，过期时间与秒杀信息一致
+if redis.call('PTTL', KEYS[2]) == -1 then
+    local ttl = redis.call('PTTL', KEYS[1])
+    if ttl > 0 then
+        redis.call('PEXPIRE', KEYS[2], ttl)
+    end
+end
+return 0
@@ -0,0 +1,6 @@
+-- 续期worker id租约，只有持有者可以续期
+-- KEYS[1] 租约key，ARGV[1] 持有者，ARGV[2] 租期（毫秒）
+if redis.call('GET', KEYS[1]) == ARGV[1] then
+    return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+return 0
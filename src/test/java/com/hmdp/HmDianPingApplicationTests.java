@@ -3,20 +3,42 @@ package com.hmdp;
 import cn.hutool.json.JSONUtil;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.impl.ShopServiceImpl;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.BloomFilterUtil;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.CacheEntry;
+import com.hmdp.utils.JsonCacheCodec;
 import com.hmdp.utils.RedisData;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdWorker;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
 
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_LOGIC_EXPIRE;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
@@ -30,6 +52,24 @@ class HmDianPingApplicationTests {
     @Resource
     private RedisIdWorker redisIdWorker;
 
+    @Resource
+    private SnowflakeIdWorker snowflakeIdWorker;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private BloomFilterUtil bloomFilterUtil;
+
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double fpp;
+
+    @Value("${hmdp.bloom.counting.enabled:false}")
+    private boolean counting;
+
     /**
      * 主线程开始
      * 创建 CountDownLatch(100) - 等待100个任务
@@ -55,11 +95,7 @@ class HmDianPingApplicationTests {
             try {
                 // 每个线程执行100次ID生成
                 for (int i = 0; i < 100; i++) {
-                    long id = redisIdWorker.nextId("order");
-                    // 减少输出，只打印前10个ID
-                    if (i < 10) {
-                        System.out.println("生成的ID：" + id);
-                    }
+                    redisIdWorker.nextId("order");
                 }
             } catch (Exception e) {
                 e.printStackTrace();
@@ -84,6 +120,84 @@ class HmDianPingApplicationTests {
         executorService.shutdown();
     }
 
+    /**
+     * ID生成吞吐量：10个线程各生成10万个ID，检查是否重复
+     * 开启号段模式（hmdp.id.segment.enabled）前后对比 ids/s
+     */
+    @Test
+    void testIdWorkerThroughput() throws InterruptedException {
+        int threads = 10;
+        int perThread = 100000;
+        Set<Long> ids = ConcurrentHashMap.newKeySet(threads * perThread);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            executorService.submit(() -> {
+                try {
+                    for (int i = 0; i < perThread; i++) {
+                        ids.add(redisIdWorker.nextId("order"));
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await(5, TimeUnit.MINUTES);
+        long elapsed = Math.max(System.nanoTime() - start, 1);
+        executorService.shutdown();
+        System.out.println("生成 " + threads * perThread + " 个ID，耗时 " + elapsed / 1000000 + " ms，"
+                + threads * perThread * 1000000000L / elapsed + " ids/s");
+        assertEquals(threads * perThread, ids.size());
+    }
+
+    /**
+     * 64个线程并发时，Snowflake与redis自增的吞吐量对比
+     * 需要开启 hmdp.id.snowflake.enabled
+     */
+    @Test
+    void testSnowflakeVsRedisIdWorker() throws InterruptedException {
+        int threads = 64;
+        int perThread = 10000;
+        System.out.println("redis自增：" + idThroughput(threads, perThread, () -> redisIdWorker.nextId("order")) + " ids/s");
+        if (snowflakeIdWorker.isEnabled()) {
+            System.out.println("Snowflake(worker " + snowflakeIdWorker.getWorkerId() + ")："
+                    + idThroughput(threads, perThread, snowflakeIdWorker::nextId) + " ids/s");
+        }
+    }
+
+    private long idThroughput(int threads, int perThread, LongSupplier generator) throws InterruptedException {
+        Set<Long> ids = ConcurrentHashMap.newKeySet(threads * perThread);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch begin = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executorService.submit(() -> {
+                ready.countDown();
+                try {
+                    // 所有线程同时开始，制造竞争
+                    begin.await();
+                    for (int i = 0; i < perThread; i++) {
+                        ids.add(generator.getAsLong());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        ready.await();
+        long start = System.nanoTime();
+        begin.countDown();
+        done.await(5, TimeUnit.MINUTES);
+        long elapsed = Math.max(System.nanoTime() - start, 1);
+        executorService.shutdown();
+        assertEquals(threads * perThread, ids.size());
+        return threads * perThread * 1000000000L / elapsed;
+    }
+
     @Test
     void testSaveShop(){
         // 测试将店铺ID为1的数据保存到Redis，设置逻辑过期时间
@@ -110,4 +224,159 @@ class HmDianPingApplicationTests {
         System.out.println("店铺名称: " + shop.getName());
         System.out.println("店铺ID: " + shop.getId());
     }
+
+    /**
+     * 1000个线程同时读取同一个冷key
+     * 统计每次缓存未命中实际的数据库查询次数，以及请求耗时的p99，只应查询一次数据库
+     */
+    @Test
+    void testMutexStampede() throws InterruptedException {
+        int threads = 1000;
+        String key = CACHE_SHOP_KEY + 1;
+        // 清空缓存和残留的互斥锁，制造冷key
+        cacheClient.delete(key);
+        stringRedisTemplate.delete(LOCK_SHOP_KEY + 1);
+
+        AtomicInteger dbCalls = new AtomicInteger();
+        long[] latencies = new long[threads];
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch ready = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            int index = i;
+            executorService.submit(() -> {
+                try {
+                    ready.await();
+                    long begin = System.nanoTime();
+                    cacheClient.queryWithMutex(CACHE_SHOP_KEY, 1L, Shop.class, id -> {
+                        dbCalls.incrementAndGet();
+                        return shopService.getById(id);
+                    }, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                    latencies[index] = System.nanoTime() - begin;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        // 所有线程同时开始
+        ready.countDown();
+        latch.await(1, TimeUnit.MINUTES);
+        executorService.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.println("数据库查询次数：" + dbCalls.get());
+        System.out.println("p50耗时：" + TimeUnit.NANOSECONDS.toMillis(latencies[threads / 2]) + " ms");
+        System.out.println("p99耗时：" + TimeUnit.NANOSECONDS.toMillis(latencies[threads * 99 / 100]) + " ms");
+        assertEquals(1, dbCalls.get());
+    }
+
+    /**
+     * 对比JSON和二进制编解码：每条缓存的字节数，以及编码/解码的耗时（ns/op）
+     * 两种编码都应能完整还原数据、过期时间和重建耗时；二进制编码的类结构指纹不一致时按未命中处理
+     */
+    @Test
+    void testCacheCodec() {
+        Shop shop = shopService.getById(1L);
+        // 二进制编码的过期时间精确到毫秒
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(CACHE_SHOP_LOGIC_EXPIRE).truncatedTo(ChronoUnit.MILLIS);
+        CacheCodec[] codecs = {new JsonCacheCodec(), new BinaryCacheCodec()};
+        int warmup = 100_000;
+        int iterations = 1_000_000;
+        for (CacheCodec codec : codecs) {
+            byte[] bytes = codec.encode(shop, expireTime, 10L);
+            CacheEntry entry = codec.decode(bytes, true);
+            assertEquals(shop, entry.getData(Shop.class));
+            assertEquals(expireTime, entry.getExpireTime());
+            assertEquals(10L, entry.getRebuildCost());
+            // 预热
+            for (int i = 0; i < warmup; i++) {
+                codec.decode(codec.encode(shop, expireTime, 10L), true).getData(Shop.class);
+            }
+            long begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                bytes = codec.encode(shop, expireTime, 10L);
+            }
+            long encodeNanos = (System.nanoTime() - begin) / iterations;
+            begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                codec.decode(bytes, true).getData(Shop.class);
+            }
+            long decodeNanos = (System.nanoTime() - begin) / iterations;
+            begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                codec.decode(bytes, true).getExpireTime();
+            }
+            long expireNanos = (System.nanoTime() - begin) / iterations;
+            System.out.println(codec.getClass().getSimpleName() + "：" + bytes.length + " 字节，编码 "
+                    + encodeNanos + " ns/op，解码 " + decodeNanos + " ns/op，读取过期时间 " + expireNanos + " ns/op");
+        }
+
+        // 修改头部的指纹（第18~21字节），模拟类结构变化后读取旧缓存
+        byte[] bytes = new BinaryCacheCodec().encode(shop, expireTime, 10L);
+        bytes[18] ^= 1;
+        assertNull(new BinaryCacheCodec().decode(bytes, true).getData(Shop.class));
+    }
+
+    /**
+     * 实测布隆过滤器的误判率：按配置的预计数量插入，再查询同样数量的不存在的元素
+     * 使用本地BitSet模拟位数组，与redis中的位置计算完全一致
+     * 位数组大小和哈希函数个数应符合 m = -n * ln(p) / (ln2)^2、k = m / n * ln2，实测误判率不超过配置值的1.5倍
+     */
+    @Test
+    void testBloomFilterFpp() {
+        long bitSize = bloomFilterUtil.getBitSize();
+        int hashCount = bloomFilterUtil.getHashCount();
+        // 按公式计算期望的位数组大小（计数模式下受计数器偏移量限制）和哈希函数个数
+        long maxBitSize = counting ? (1L << 32) / 4 : 1L << 32;
+        long expectedBitSize = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        expectedBitSize = Math.min(Math.max(64, Math.min(expectedBitSize, 1L << 32)), maxBitSize);
+        int expectedHashCount = Math.max(1, (int) Math.round((double) expectedBitSize / expectedInsertions * Math.log(2)));
+        assertEquals(expectedBitSize, bitSize);
+        assertEquals(expectedHashCount, hashCount);
+
+        int n = (int) expectedInsertions;
+        BitSet bits = new BitSet((int) bitSize);
+        for (int i = 0; i < n; i++) {
+            for (long index : bloomFilterUtil.getBitIndexes(String.valueOf(i))) {
+                bits.set((int) index);
+            }
+        }
+        int falsePositives = 0;
+        for (int i = n; i < 2 * n; i++) {
+            boolean all = true;
+            for (long index : bloomFilterUtil.getBitIndexes(String.valueOf(i))) {
+                if (!bits.get((int) index)) {
+                    all = false;
+                    break;
+                }
+            }
+            if (all) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / n;
+        System.out.println("位数组：" + bitSize + " 位（" + bitSize / 8 / 1024 + " KB），哈希函数：" + hashCount + " 个");
+        System.out.println("实测误判率：" + rate);
+        assertTrue(rate <= fpp * 1.5, "实测误判率 " + rate + " 超过配置值 " + fpp + " 的1.5倍");
+    }
+
+    /**
+     * 布隆过滤器计算位置的耗时（ns/op）
+     */
+    @Test
+    void testBloomFilterHash() {
+        int warmup = 100_000;
+        int iterations = 1_000_000;
+        long sink = 0;
+        for (int i = 0; i < warmup; i++) {
+            sink += bloomFilterUtil.getBitIndexes(String.valueOf(i))[0];
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += bloomFilterUtil.getBitIndexes(String.valueOf(i))[0];
+        }
+        System.out.println("计算位置耗时：" + (System.nanoTime() - begin) / iterations + " ns/op（" + sink % 10 + "）");
+    }
 }